@@ -16,6 +16,9 @@ import org.apache.solr.search.SolrIndexSearcher;
  *
  * Interface to the Solr Authority DB
  *
+ * If given an {@link AuthorityMap} built from the same searcher, cross-references
+ * are read from the map rather than searched for.
+ *
  */
 public class AuthDB
 {
@@ -26,6 +29,7 @@ public class AuthDB
     private String useInsteadHeadingField;
     private String seeAlsoHeadingField;
     private String scopeNoteField;
+    private AuthorityMap authorityMap = null;
 
     public AuthDB(SolrIndexSearcher authSearcher,
                   String preferredField,
@@ -41,6 +45,21 @@ public class AuthDB
     }
 
 
+    public AuthDB(SolrIndexSearcher authSearcher,
+                  String preferredField,
+                  String useInsteadField,
+                  String seeAlsoField,
+                  String noteField,
+                  AuthorityMap map)
+    {
+        this(authSearcher, preferredField, useInsteadField, seeAlsoField, noteField);
+
+        if (map != null && map.isFor(authSearcher)) {
+            authorityMap = map;
+        }
+    }
+
+
     private List<String> docValues(Document doc, String field)
     {
         String values[] = doc.getValues(field);
@@ -88,6 +107,10 @@ public class AuthDB
     public Map<String, List<String>> getFields(String heading)
     throws Exception
     {
+        if (authorityMap != null) {
+            return authorityMap.getFields(heading);
+        }
+
         Document authInfo = getAuthorityRecord(heading);
 
         Map<String, List<String>> itemValues = new HashMap<> ();
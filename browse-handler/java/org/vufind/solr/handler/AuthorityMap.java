@@ -0,0 +1,195 @@
+package org.vufind.solr.handler;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Bits;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * In-memory copy of the cross-references in one authority searcher, so that
+ * {@link AuthDB#getFields} can be answered with a hash lookup instead of two
+ * Lucene searches and stored-field reads per heading.
+ * <p>
+ * The map is built by reading every live authority record once, in docid
+ * order.  It gives the same answers as the searches it replaces:
+ * <ul>
+ * <li>a heading's seeAlso and note values come from the first record listing
+ *     it as a preferred heading;</li>
+ * <li>useInstead values (the preferred headings of records listing the
+ *     heading under useInstead, at most {@link AuthDB#MAX_PREFERRED_HEADINGS}
+ *     records) are only kept for headings with no record of their own.</li>
+ * </ul>
+ * Strings are shared between entries, since the same headings turn up many
+ * times as cross-references.
+ * <p>
+ * A map only describes the searcher it was built from; use {@link #isFor} to
+ * check before using it.
+ *
+ */
+class AuthorityMap
+{
+    private static final String[] NONE = new String[0];
+
+    private static final class Entry
+    {
+        String[] seeAlso = NONE;
+        String[] note = NONE;
+        String[] useInstead = NONE;
+    }
+
+    private final WeakReference<SolrIndexSearcher> searcher;
+    private final Map<String, Entry> entries;
+
+
+    private AuthorityMap(SolrIndexSearcher searcher, Map<String, Entry> entries)
+    {
+        this.searcher = new WeakReference<> (searcher);
+        this.entries = entries;
+    }
+
+
+    /**
+     * True if this map was built from {@code authSearcher}.
+     */
+    public boolean isFor(SolrIndexSearcher authSearcher)
+    {
+        return searcher.get() == authSearcher;
+    }
+
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+
+    /**
+     * The cross-references for a heading, in the form returned by
+     * {@link AuthDB#getFields}.
+     */
+    public Map<String, List<String>> getFields(String heading)
+    {
+        Entry entry = entries.get(heading);
+
+        Map<String, List<String>> itemValues = new HashMap<> ();
+
+        if (entry == null) {
+            itemValues.put("seeAlso", Collections.<String>emptyList());
+            itemValues.put("useInstead", Collections.<String>emptyList());
+            itemValues.put("note", Collections.<String>emptyList());
+        } else {
+            itemValues.put("seeAlso", Arrays.asList(entry.seeAlso));
+            itemValues.put("useInstead", Arrays.asList(entry.useInstead));
+            itemValues.put("note", Arrays.asList(entry.note));
+        }
+
+        return itemValues;
+    }
+
+
+    public static AuthorityMap build(SolrIndexSearcher authSearcher,
+                                     String preferredField,
+                                     String useInsteadField,
+                                     String seeAlsoField,
+                                     String noteField)
+    throws IOException
+    {
+        Set<String> fields = new HashSet<> (Arrays.asList(preferredField,
+                                            useInsteadField,
+                                            seeAlsoField,
+                                            noteField));
+
+        Map<String, String> strings = new HashMap<> ();
+        Map<String, Entry> preferred = new HashMap<> ();
+        Map<String, List<String>> useInstead = new HashMap<> ();
+        Map<String, Integer> useInsteadRecords = new HashMap<> ();
+
+        for (LeafReaderContext ctx : authSearcher.getIndexReader().leaves()) {
+            LeafReader leaf = ctx.reader();
+            Bits liveDocs = leaf.getLiveDocs();
+
+            for (int docid = 0; docid < leaf.maxDoc(); docid++) {
+                if (liveDocs != null && !liveDocs.get(docid)) {
+                    continue;
+                }
+
+                DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(fields);
+                leaf.document(docid, visitor);
+                Document doc = visitor.getDocument();
+
+                String[] headings = share(doc.getValues(preferredField), strings);
+
+                for (String heading : headings) {
+                    if (!preferred.containsKey(heading)) {
+                        Entry entry = new Entry();
+                        entry.seeAlso = share(doc.getValues(seeAlsoField), strings);
+                        entry.note = share(doc.getValues(noteField), strings);
+                        preferred.put(heading, entry);
+                    }
+                }
+
+                for (String insteadOf : doc.getValues(useInsteadField)) {
+                    Integer records = useInsteadRecords.get(insteadOf);
+                    if (records == null) {
+                        records = 0;
+                        useInstead.put(insteadOf, new ArrayList<String>());
+                    }
+
+                    if (records < AuthDB.MAX_PREFERRED_HEADINGS) {
+                        useInstead.get(insteadOf).addAll(Arrays.asList(headings));
+                        useInsteadRecords.put(insteadOf, records + 1);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<String>> e : useInstead.entrySet()) {
+            if (!preferred.containsKey(e.getKey()) && !e.getValue().isEmpty()) {
+                Entry entry = new Entry();
+                entry.useInstead = e.getValue().toArray(NONE);
+                preferred.put(share(e.getKey(), strings), entry);
+            }
+        }
+
+        return new AuthorityMap(authSearcher, preferred);
+    }
+
+
+    private static String share(String s, Map<String, String> strings)
+    {
+        String existing = strings.get(s);
+        if (existing == null) {
+            strings.put(s, s);
+            return s;
+        }
+
+        return existing;
+    }
+
+
+    private static String[] share(String[] values, Map<String, String> strings)
+    {
+        if (values.length == 0) {
+            return NONE;
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = share(values[i], strings);
+        }
+
+        return values;
+    }
+}
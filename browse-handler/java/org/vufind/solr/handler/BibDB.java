@@ -8,15 +8,35 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.CollectionTerminatedException;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
 
 /**
  *
@@ -24,12 +44,24 @@ import org.apache.lucene.search.TotalHitCountCollector;
  * <p>
  * This class provides a way to look up headings in one single field of the
  * bibilio core, specified in the constructor.
+ * <p>
+ * Heading counts can be cached in a Solr user cache on the biblio core (see
+ * {@link HeadingCountRegenerator}).  Solr discards or autowarms the cache when
+ * a new searcher opens, so cached counts always match the searcher in use.
+ * <p>
+ * Extra fields for the browse display are read from docValues where the field
+ * has them, and from stored fields otherwise (see {@link LeafFieldReader}).
+ * <p>
+ * Given a filter (the docs matching a request's filter queries), only bib
+ * records in the filter are counted or read.  Filtered counts aren't cached.
  *
  */
 public class BibDB
 {
     private IndexSearcher db;
     private String field;
+    private String countCacheName = null;
+    private DocSet filter = null;
 
     /**
      * @param searcher an index searcher connected to the bibilio core.
@@ -41,6 +73,117 @@ public class BibDB
         this.field = field;
     }
 
+    /**
+     * @param searcher       an index searcher connected to the bibilio core.
+     * @param field          the field that will be searched for matching headings.
+     * @param countCacheName name of the Solr user cache holding heading counts.
+     *                       Counts aren't cached if the searcher has no such cache.
+     */
+    public BibDB(IndexSearcher searcher, String field, String countCacheName)
+    {
+        this(searcher, field);
+
+        if (countCacheName != null &&
+                searcher instanceof SolrIndexSearcher &&
+                ((SolrIndexSearcher) searcher).getCache(countCacheName) != null) {
+            this.countCacheName = countCacheName;
+        }
+    }
+
+    /**
+     * @param searcher       an index searcher connected to the bibilio core.
+     * @param field          the field that will be searched for matching headings.
+     * @param countCacheName name of the Solr user cache holding heading counts.
+     * @param filter         the bib records to consider, or null for all of them.
+     */
+    public BibDB(IndexSearcher searcher, String field, String countCacheName, DocSet filter)
+    {
+        this(searcher, field, countCacheName);
+
+        if (filter != null) {
+            this.filter = filter;
+            // The cache holds unfiltered counts
+            this.countCacheName = null;
+        }
+    }
+
+    /**
+     * True if only the bib records in a filter are counted.
+     */
+    public boolean isFiltered()
+    {
+        return filter != null;
+    }
+
+    /*
+     * The docs matching a heading, limited to the filter if we have one.
+     */
+    private Query headingQuery(String heading)
+    {
+        TermQuery q = new TermQuery(new Term(field, heading));
+
+        if (filter == null) {
+            return q;
+        }
+
+        return new BooleanQuery.Builder()
+               .add(q, BooleanClause.Occur.MUST)
+               .add(filter.getTopFilter(), BooleanClause.Occur.FILTER)
+               .build();
+    }
+
+    /**
+     * Key for cached heading counts.  Counts depend on the field searched as
+     * well as the heading, so both are part of the key.
+     */
+    static final class CountKey
+    {
+        final String field;
+        final String heading;
+
+        CountKey(String field, String heading)
+        {
+            this.field = field;
+            this.heading = heading;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof CountKey)) {
+                return false;
+            }
+
+            CountKey key = (CountKey) other;
+            return field.equals(key.field) && heading.equals(key.heading);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (31 * field.hashCode()) + heading.hashCode();
+        }
+    }
+
+    private Integer cachedCount(String heading)
+    {
+        if (countCacheName == null) {
+            return null;
+        }
+
+        return (Integer)((SolrIndexSearcher) db).cacheLookup(countCacheName,
+                new CountKey(field, heading));
+    }
+
+    private void cacheCount(String heading, int count)
+    {
+        if (countCacheName != null) {
+            ((SolrIndexSearcher) db).cacheInsert(countCacheName,
+                                                 new CountKey(field, heading),
+                                                 count);
+        }
+    }
+
     /**
      * Returns the number of bib records that match an authority heading.
      *
@@ -51,14 +194,107 @@ public class BibDB
     public int recordCount(String heading)
     throws IOException
     {
-        TermQuery q = new TermQuery(new Term(field, heading));
+        Integer cached = cachedCount(heading);
+        if (cached != null) {
+            return cached;
+        }
+
+        Query q = headingQuery(heading);
 
         TotalHitCountCollector counter = new TotalHitCountCollector();
         db.search(q, counter);
 
+        cacheCount(heading, counter.getTotalHits());
+
         return counter.getTotalHits();
     }
 
+    /**
+     * Returns the number of bib records that match each of a set of headings.
+     * <p>
+     * Gives the same answers as calling {@link #recordCount(String)} for each
+     * heading, but does it in a single pass per index segment: the headings
+     * are sorted into term order and looked up with one forward-moving
+     * {@code TermsEnum}.  Segments without deletions answer from the term's
+     * document frequency; otherwise the term's postings are checked against
+     * the segment's live docs, or against the filter if there is one.
+     * Headings found in the count cache are skipped, and the rest are added
+     * to it.
+     *
+     * @param headings headings to count (duplicates are fine)
+     * @return map from each heading to its number of matching bib records
+     * @throws IOException
+     */
+    public Map<String, Integer> recordCounts(Collection<String> headings)
+    throws IOException
+    {
+        Map<String, Integer> result = new HashMap<> ();
+
+        // TreeMap over BytesRef gives us index term order
+        TreeMap<BytesRef, String> terms = new TreeMap<> ();
+        for (String heading : headings) {
+            Integer cached = cachedCount(heading);
+            if (cached != null) {
+                result.put(heading, cached);
+            } else {
+                terms.put(new BytesRef(heading), heading);
+            }
+        }
+
+        BytesRef[] sortedTerms = terms.keySet().toArray(new BytesRef[terms.size()]);
+        int[] counts = new int[sortedTerms.length];
+
+        for (LeafReaderContext context : db.getIndexReader().leaves()) {
+            LeafReader reader = context.reader();
+            Terms fieldTerms = reader.terms(this.field);
+
+            if (fieldTerms == null) {
+                continue;
+            }
+
+            TermsEnum termsEnum = fieldTerms.iterator();
+            Bits liveDocs = reader.getLiveDocs();
+            PostingsEnum postings = null;
+
+            for (int i = 0; i < sortedTerms.length; i++) {
+                if (!termsEnum.seekExact(sortedTerms[i])) {
+                    continue;
+                }
+
+                if (filter != null) {
+                    postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                    for (int doc = postings.nextDoc();
+                            doc != PostingsEnum.NO_MORE_DOCS;
+                            doc = postings.nextDoc()) {
+                        if ((liveDocs == null || liveDocs.get(doc)) &&
+                                filter.exists(context.docBase + doc)) {
+                            counts[i]++;
+                        }
+                    }
+                } else if (liveDocs == null) {
+                    counts[i] += termsEnum.docFreq();
+                } else {
+                    postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                    for (int doc = postings.nextDoc();
+                            doc != PostingsEnum.NO_MORE_DOCS;
+                            doc = postings.nextDoc()) {
+                        if (liveDocs.get(doc)) {
+                            counts[i]++;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < sortedTerms.length; i++) {
+            String heading = terms.get(sortedTerms[i]);
+            result.put(heading, counts[i]);
+            cacheCount(heading, counts[i]);
+        }
+
+        return result;
+    }
+
     /**
      *
      * Function to retrieve the doc ids when there is a building limit
@@ -81,7 +317,7 @@ public class BibDB
             int maxBibListSize)
     throws Exception
     {
-        TermQuery q = new TermQuery(new Term(field, heading));
+        Query q = headingQuery(heading);
 
         // bibinfo values are List<Collection> because some extra fields
         // may be multi-valued.
@@ -172,7 +408,7 @@ public class BibDB
             return null;
         }
 
-        TermQuery q = new TermQuery(new Term(this.field, heading));
+        Query q = headingQuery(heading);
 
         // bibinfo values are List<Collection> because some extra fields
         // may be multi-valued.
@@ -184,7 +420,7 @@ public class BibDB
         }
 
         db.search(q, new SimpleCollector() {
-            private LeafReaderContext context;
+            private LeafFieldReader fieldReader;
             private int docCount = 0;
 
             public void setScorer(Scorer scorer) {
@@ -200,8 +436,8 @@ public class BibDB
                 return false;
             }
 
-            public void doSetNextReader(LeafReaderContext context) {
-                this.context = context;
+            public void doSetNextReader(LeafReaderContext context) throws IOException {
+                this.fieldReader = new LeafFieldReader(context.reader(), bibExtras);
             }
 
 
@@ -213,17 +449,16 @@ public class BibDB
                     this.docCount++;
                 }
 
-                int docid = docnum + context.docBase;
                 try {
-                    Document doc = db.getIndexReader().document(docid);
-                    for (String bibField : bibExtras) {
-                        String[] vals = doc.getValues(bibField);
+                    String[][] docValues = fieldReader.read(docnum);
+                    for (int i = 0; i < bibExtras.length; i++) {
+                        String[] vals = docValues[i];
                         if (vals.length > 0) {
                             Collection<String> valSet = new LinkedHashSet<> ();
                             for (String val : vals) {
                                 valSet.add(val);
                             }
-                            bibinfo.get(bibField).add(valSet);
+                            bibinfo.get(bibExtras[i]).add(valSet);
                         }
                     }
                 } catch (org.apache.lucene.index.CorruptIndexException e) {
@@ -265,7 +500,7 @@ public class BibDB
             return null;
         }
 
-        TermQuery q = new TermQuery(new Term(this.field, heading));
+        Query q = headingQuery(heading);
 
         // bibinfo values are List<Collection> because some extra fields
         // may be multi-valued.
@@ -277,7 +512,7 @@ public class BibDB
         }
 
         db.search(q, new SimpleCollector() {
-            private LeafReaderContext context;
+            private LeafFieldReader fieldReader;
             private int docCount = 0;
 
             public void setScorer(Scorer scorer) {
@@ -293,8 +528,8 @@ public class BibDB
                 return false;
             }
 
-            public void doSetNextReader(LeafReaderContext context) {
-                this.context = context;
+            public void doSetNextReader(LeafReaderContext context) throws IOException {
+                this.fieldReader = new LeafFieldReader(context.reader(), bibExtras);
             }
 
 
@@ -306,12 +541,11 @@ public class BibDB
                     this.docCount++;
                 }
 
-                int docid = docnum + context.docBase;
                 try {
-                    Document doc = db.getIndexReader().document(docid);
-                    for (String bibField : bibExtras) {
-                        for (String v : doc.getValues(bibField)) {
-                            bibinfo.get(bibField).add(v);
+                    String[][] docValues = fieldReader.read(docnum);
+                    for (int i = 0; i < bibExtras.length; i++) {
+                        for (String v : docValues[i]) {
+                            bibinfo.get(bibExtras[i]).add(v);
                         }
                     }
                 } catch (org.apache.lucene.index.CorruptIndexException e) {
@@ -325,4 +559,116 @@ public class BibDB
 
         return bibinfo;
     }
+
+
+    /*
+     * True if the field has docValues holding the same strings as its
+     * stored values.  Only string fields qualify: other field types with
+     * sorted docValues (such as SortableTextField) may truncate them.
+     */
+    private boolean hasStringDocValues(FieldInfo info)
+    {
+        DocValuesType type = info.getDocValuesType();
+        if (type != DocValuesType.SORTED && type != DocValuesType.SORTED_SET) {
+            return false;
+        }
+
+        if (db instanceof SolrIndexSearcher) {
+            SchemaField schemaField = ((SolrIndexSearcher) db).getSchema().getFieldOrNull(info.name);
+            return schemaField != null && (schemaField.getType() instanceof StrField);
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Reads a set of fields from the docs of one segment.
+     * <p>
+     * Fields with SORTED or SORTED_SET docValues are read from those, which
+     * avoids decompressing a block of stored fields for every doc.  The rest
+     * are loaded from stored fields, and only if there are any.  Values read
+     * from SORTED_SET docValues come back sorted and without duplicates
+     * rather than in the order they were indexed.
+     * <p>
+     * Docs must be read in increasing docnum order.
+     */
+    private class LeafFieldReader
+    {
+        private static final int ABSENT = 0;
+        private static final int DOC_VALUES = 1;
+        private static final int STORED = 2;
+
+        private final LeafReader reader;
+        private final String[] fields;
+        private final int[] source;
+        private final SortedSetDocValues[] docValues;
+        private final Set<String> storedFields = new HashSet<> ();
+
+        LeafFieldReader(LeafReader reader, String[] fields) throws IOException
+        {
+            this.reader = reader;
+            this.fields = fields;
+            this.source = new int[fields.length];
+            this.docValues = new SortedSetDocValues[fields.length];
+
+            for (int i = 0; i < fields.length; i++) {
+                FieldInfo info = reader.getFieldInfos().fieldInfo(fields[i]);
+
+                if (info == null) {
+                    // No doc in this segment has the field
+                    source[i] = ABSENT;
+                } else if (hasStringDocValues(info)) {
+                    source[i] = DOC_VALUES;
+                    docValues[i] = DocValues.getSortedSet(reader, fields[i]);
+                } else {
+                    source[i] = STORED;
+                    storedFields.add(fields[i]);
+                }
+            }
+        }
+
+        /*
+         * The values of each field for `docnum`, in the order the fields
+         * were given.
+         */
+        String[][] read(int docnum) throws IOException
+        {
+            String[][] result = new String[fields.length][];
+            Document doc = null;
+
+            if (!storedFields.isEmpty()) {
+                DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(storedFields);
+                reader.document(docnum, visitor);
+                doc = visitor.getDocument();
+            }
+
+            for (int i = 0; i < fields.length; i++) {
+                if (source[i] == DOC_VALUES) {
+                    result[i] = readDocValues(docValues[i], docnum);
+                } else if (source[i] == STORED) {
+                    result[i] = doc.getValues(fields[i]);
+                } else {
+                    result[i] = new String[0];
+                }
+            }
+
+            return result;
+        }
+
+        private String[] readDocValues(SortedSetDocValues values, int docnum) throws IOException
+        {
+            if (!values.advanceExact(docnum)) {
+                return new String[0];
+            }
+
+            List<String> result = new ArrayList<> ();
+            long ord;
+            while ((ord = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                result.add(values.lookupOrd(ord).utf8ToString());
+            }
+
+            return result.toArray(new String[result.size()]);
+        }
+    }
 }
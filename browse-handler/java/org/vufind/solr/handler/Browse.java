@@ -2,20 +2,61 @@ package org.vufind.solr.handler;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.vufind.util.CrossReferences;
 
 /**
  * Class that performs the alphabetical browse of an index and produces a
  * {@code BrowseList} object.
+ * <p>
+ * Given an executor, the items of a page are populated concurrently: up to
+ * {@code maxConcurrency} workers (the calling thread among them) take items
+ * in turn until the page is done.  The page keeps its rowid order either way.
+ * <p>
+ * With {@code snapshotCounts}, headings take their hit counts from the
+ * headings index where it has them, and only the rest are counted against the
+ * bib index.
+ * <p>
+ * With {@code snapshotXrefs}, headings take their cross-references from the
+ * headings index where it has them.  These were limited to headings with bib
+ * hits when the index was built, so they aren't counted again.  Otherwise
+ * they're looked up in the authority index, if there is one.
+ * <p>
+ * If the bib index is filtered (see {@link BibDB#isFiltered()}), headings
+ * without hits under the filter are skipped: headings are read and counted a
+ * block at a time until the page is full, and the offset counts only headings
+ * with hits.  Stored counts don't apply under a filter, and stored
+ * cross-references are counted again.
+ * <p>
+ * Given a {@link HeadingCountVector}, heading counts are read from it by
+ * rowid.  Cross-references are still counted against the bib index.
  *
  */
 class Browse
 {
+    // Blocks of headings read for a filtered browse start big enough for a
+    // page and double in size, up to this many headings.
+    private static final int MIN_FILTER_BLOCK = 100;
+    private static final int MAX_FILTER_BLOCK = 10000;
+
     private HeadingsDB headingsDB;
     private AuthDB authDB;
     private BibDB bibDB;
     private int maxBibListSize;
+    private ExecutorService executor = null;
+    private int maxConcurrency = 1;
+    private boolean snapshotCounts = false;
+    private boolean snapshotXrefs = false;
+    private HeadingCountVector countVector = null;
 
     public Browse(HeadingsDB headings, BibDB bibdb, AuthDB auth,
                   boolean retrieveBibId, int maxBibListSize)
@@ -26,18 +67,85 @@ class Browse
         this.maxBibListSize = maxBibListSize;
     }
 
-    private void populateItem(BrowseItem item, String fields) throws Exception
+    public Browse(HeadingsDB headings, BibDB bibdb, AuthDB auth,
+                  boolean retrieveBibId, int maxBibListSize,
+                  ExecutorService executor, int maxConcurrency)
+    {
+        this(headings, bibdb, auth, retrieveBibId, maxBibListSize);
+        this.executor = executor;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    public Browse(HeadingsDB headings, BibDB bibdb, AuthDB auth,
+                  boolean retrieveBibId, int maxBibListSize,
+                  ExecutorService executor, int maxConcurrency,
+                  boolean snapshotCounts, boolean snapshotXrefs,
+                  HeadingCountVector countVector)
+    {
+        this(headings, bibdb, auth, retrieveBibId, maxBibListSize, executor, maxConcurrency);
+        this.snapshotCounts = snapshotCounts;
+        this.snapshotXrefs = snapshotXrefs;
+        this.countVector = countVector;
+    }
+
+    /*
+     * Authority fields in the form AuthDB.getFields gives them, from
+     * cross-references stored in the headings index.
+     */
+    private Map<String, List<String>> storedFields(CrossReferences xrefs)
+    {
+        Map<String, List<String>> authFields = new HashMap<> ();
+
+        authFields.put("seeAlso", (xrefs != null) ? xrefs.seeAlso : new ArrayList<String>());
+        authFields.put("useInstead", (xrefs != null) ? xrefs.useInstead : new ArrayList<String>());
+        authFields.put("note", (xrefs != null) ? xrefs.note : new ArrayList<String>());
+
+        return authFields;
+    }
+
+    /*
+     * Fill in everything except hit counts, and return the authority fields
+     * for the heading so the cross-references can be counted later.  Stored
+     * cross-references are used in place of the authority index if given.
+     */
+    private Map<String, List<String>> populateItem(BrowseItem item, String fields,
+            boolean stored, CrossReferences xrefs)
+    throws Exception
     {
         Map<String, List<Collection<String>>> bibinfo =
             bibDB.matchingExtras(item.getHeading(), fields, maxBibListSize);
         item.setExtras(bibinfo);
-        item.setCount(bibDB.recordCount(item.getHeading()));
 
-        Map<String, List<String>> authFields = authDB.getFields(item.getHeading());
+        Map<String, List<String>> authFields;
+
+        if (stored || authDB == null) {
+            authFields = storedFields(xrefs);
+        } else {
+            authFields = authDB.getFields(item.getHeading());
+        }
+
+        for (String value : authFields.get("note")) {
+            item.setNote(value);
+        }
+
+        return authFields;
+    }
+
+
+    /*
+     * Set the item's hit count and keep only the cross-references that have
+     * hits of their own (unless they were checked for hits already).
+     */
+    private void populateCounts(BrowseItem item,
+                                Map<String, List<String>> authFields,
+                                Map<String, Integer> counts,
+                                boolean filterXrefs)
+    {
+        item.setCount(counts.get(item.getHeading()));
 
         List<String> seeAlsoList = new ArrayList<String>();
         for (String value : authFields.get("seeAlso")) {
-            if (bibDB.recordCount(value) > 0) {
+            if (!filterXrefs || counts.get(value) > 0) {
                 seeAlsoList.add(value);
             }
         }
@@ -45,15 +153,104 @@ class Browse
 
         List<String> useInsteadList = new ArrayList<String>();
         for (String value : authFields.get("useInstead")) {
-            if (bibDB.recordCount(value) > 0) {
+            if (!filterXrefs || counts.get(value) > 0) {
                 useInsteadList.add(value);
             }
         }
         item.setUseInstead(useInsteadList);
+    }
 
-        for (String value : authFields.get("note")) {
-            item.setNote(value);
+
+    /*
+     * Populate every item, concurrently if we have an executor.  Returns the
+     * authority fields of each item, in item order.  storedXrefs holds each
+     * item's stored cross-references, or is null to look them up.
+     */
+    private List<Map<String, List<String>>> populateItems(final List<BrowseItem> items,
+            final String extras,
+            final List<CrossReferences> storedXrefs)
+    throws Exception
+    {
+        final List<Map<String, List<String>>> authFieldsList = new ArrayList<> ();
+        for (int i = 0; i < items.size(); i++) {
+            authFieldsList.add(null);
+        }
+
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicReference<Exception> failure = new AtomicReference<> ();
+
+        final Runnable worker = new Runnable() {
+            public void run() {
+                int i;
+                while (failure.get() == null && (i = next.getAndIncrement()) < items.size()) {
+                    try {
+                        Map<String, List<String>> authFields =
+                            populateItem(items.get(i), extras,
+                                         storedXrefs != null,
+                                         (storedXrefs != null) ? storedXrefs.get(i) : null);
+                        synchronized (authFieldsList) {
+                            authFieldsList.set(i, authFields);
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }
+        };
+
+        int workers = (executor == null) ? 1 : Math.min(maxConcurrency, items.size());
+
+        // Helpers still queued once the calling thread has finished have
+        // nothing left to do, so we only wait for the ones that got started.
+        final Object helperLock = new Object();
+        final int[] runningHelpers = {0};
+        final boolean[] finished = {false};
+
+        Runnable helper = new Runnable() {
+            public void run() {
+                synchronized (helperLock) {
+                    if (finished[0]) {
+                        return;
+                    }
+                    runningHelpers[0]++;
+                }
+
+                try {
+                    worker.run();
+                } finally {
+                    synchronized (helperLock) {
+                        runningHelpers[0]--;
+                        helperLock.notifyAll();
+                    }
+                }
+            }
+        };
+
+        List<Future<?>> helpers = new ArrayList<> ();
+        for (int i = 1; i < workers; i++) {
+            helpers.add(executor.submit(helper));
         }
+
+        // The calling thread works too, so the page completes even if the
+        // executor is busy with other requests.
+        worker.run();
+
+        synchronized (helperLock) {
+            finished[0] = true;
+            while (runningHelpers[0] > 0) {
+                helperLock.wait();
+            }
+        }
+
+        for (Future<?> queued : helpers) {
+            queued.cancel(false);
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        return authFieldsList;
     }
 
 
@@ -63,25 +260,196 @@ class Browse
     }
 
 
+    private static int firstBlockSize(int wanted)
+    {
+        return Math.min(MAX_FILTER_BLOCK, Math.max(MIN_FILTER_BLOCK, 2 * wanted));
+    }
+
+
+    /*
+     * Add heading i of one slice to another.
+     */
+    private static void copyHeading(HeadingSlice from, int i, HeadingSlice to)
+    {
+        to.sort_keys.add(from.sort_keys.get(i));
+        to.headings.add(from.headings.get(i));
+
+        if (!from.counts.isEmpty()) {
+            to.counts.add(from.counts.get(i));
+        }
+
+        if (!from.xrefs.isEmpty()) {
+            to.xrefs.add(from.xrefs.get(i));
+        }
+    }
+
+
+    /*
+     * The rowid of the heading `wanted` headings with hits before `rowid`,
+     * reading back a block at a time, or 1 if there aren't that many.
+     */
+    private int filteredStart(int rowid, int wanted) throws Exception
+    {
+        int found = 0;
+        int pos = rowid;
+        int blockSize = firstBlockSize(wanted);
+
+        while (pos > 1) {
+            int start = Math.max(1, pos - blockSize);
+            HeadingSlice block = headingsDB.getHeadings(start, pos - start);
+            Map<String, Integer> blockCounts = bibDB.recordCounts(block.headings);
+
+            for (int i = block.headings.size() - 1; i >= 0; i--) {
+                if (blockCounts.get(block.headings.get(i)) > 0 && ++found == wanted) {
+                    return start + i;
+                }
+            }
+
+            pos = start;
+            blockSize = Math.min(MAX_FILTER_BLOCK, 2 * blockSize);
+        }
+
+        return 1;
+    }
+
+
+    /*
+     * Up to `rows` headings with hits, skipping the first `offset` of those
+     * from `rowid` (or starting `offset` of them back, if it's negative).
+     * Their counts go into `counts`, and the offset actually used into
+     * `list`.
+     * <p>
+     * The slice's total is the number of headings from its first onwards,
+     * with or without hits, so it's only an upper bound.
+     */
+    private HeadingSlice filteredHeadings(int rowid, int offset, int rows,
+                                          Map<String, Integer> counts,
+                                          BrowseList list)
+    throws Exception
+    {
+        int pos = (offset < 0) ? filteredStart(rowid, -offset) : rowid;
+        int skip = Math.max(0, offset);
+        int blockSize = firstBlockSize(skip + rows);
+
+        HeadingSlice result = new HeadingSlice();
+        result.total = -1;
+        int before = 0;
+
+        while (result.headings.size() < rows) {
+            HeadingSlice block = headingsDB.getHeadings(pos, blockSize);
+
+            if (block.headings.isEmpty()) {
+                break;
+            }
+
+            Map<String, Integer> blockCounts = bibDB.recordCounts(block.headings);
+
+            for (int i = 0; i < block.headings.size() && result.headings.size() < rows; i++) {
+                String heading = block.headings.get(i);
+                int count = blockCounts.get(heading);
+
+                if (count == 0) {
+                    continue;
+                }
+
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+
+                if (result.total < 0) {
+                    result.total = block.total - i;
+                }
+
+                copyHeading(block, i, result);
+                counts.put(heading, count);
+
+                if (pos + i < rowid) {
+                    before++;
+                }
+            }
+
+            pos += block.headings.size();
+            blockSize = Math.min(MAX_FILTER_BLOCK, 2 * blockSize);
+        }
+
+        result.total = Math.max(0, result.total);
+
+        // If the page ends before rowid, we don't know how far back it
+        // started, but it's far enough for the page to miss rowid either way.
+        list.offset = (offset < 0 && before < rows) ? -before : offset;
+
+        return result;
+    }
+
+
     public BrowseList getList(int rowid, int offset, int rows, String extras)
     throws Exception
     {
         BrowseList result = new BrowseList();
 
-        HeadingSlice h = headingsDB.getHeadings(Math.max(1, rowid + offset),
-                                                rows);
+        Map<String, Integer> counts = new HashMap<> ();
+        HeadingSlice h;
+
+        if (bibDB.isFiltered()) {
+            h = filteredHeadings(rowid, offset, rows, counts, result);
+        } else {
+            int start = Math.max(1, rowid + offset);
+            h = headingsDB.getHeadings(start, rows);
+            result.offset = offset;
+
+            if (countVector != null) {
+                for (int i = 0; i < h.headings.size(); i++) {
+                    int count = countVector.count(start + i);
+                    if (count >= 0) {
+                        counts.put(h.headings.get(i), count);
+                    }
+                }
+            }
+        }
 
         result.totalCount = h.total;
 
         for (int i = 0; i < h.headings.size(); i++) {
-            String heading = h.headings.get(i);
-            String sort_key = h.sort_keys.get(i);
+            result.add(new BrowseItem(h.sort_keys.get(i), h.headings.get(i)));
+        }
+
+        // Indexes built without cross-references fall back to the authority
+        // index.
+        List<CrossReferences> storedXrefs = (snapshotXrefs && !h.xrefs.isEmpty()) ? h.xrefs : null;
+
+        List<Map<String, List<String>>> authFieldsList = populateItems(result, extras, storedXrefs);
+
+        // Stored cross-references were checked for hits without the filter
+        boolean countXrefs = (storedXrefs == null || bibDB.isFiltered());
+
+        if (snapshotCounts && !bibDB.isFiltered()) {
+            for (int i = 0; i < h.counts.size(); i++) {
+                if (h.counts.get(i) != null && !counts.containsKey(h.headings.get(i))) {
+                    counts.put(h.headings.get(i), h.counts.get(i));
+                }
+            }
+        }
+
+        // Every other heading and cross-reference on the page gets counted in
+        // one batch once the items are populated.
+        Set<String> toCount = new HashSet<> ();
+
+        for (int i = 0; i < result.size(); i++) {
+            toCount.add(result.get(i).getHeading());
+
+            if (countXrefs) {
+                toCount.addAll(authFieldsList.get(i).get("seeAlso"));
+                toCount.addAll(authFieldsList.get(i).get("useInstead"));
+            }
+        }
 
-            BrowseItem item = new BrowseItem(sort_key, heading);
+        toCount.removeAll(counts.keySet());
 
-            populateItem(item, extras);
+        counts.putAll(bibDB.recordCounts(toCount));
 
-            result.add(item);
+        for (int i = 0; i < result.size(); i++) {
+            populateCounts(result.get(i), authFieldsList.get(i), counts, countXrefs);
         }
 
         return result;
@@ -23,6 +23,13 @@ public class BrowseList extends ArrayList<BrowseItem>
      */
     public int totalCount = 0;
 
+    /**
+     * How many headings the first item is from the point the browse started,
+     * as requested.  A filtered browse that runs into the start of the index
+     * before it has gone back that far gives the distance it did go back.
+     */
+    public int offset = 0;
+
     public BrowseList()
     {
         super();
@@ -8,20 +8,33 @@ package org.vufind.solr.handler;
 
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.CoreDescriptor;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.SolrRequestHandler;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.QParser;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.util.RefCounted;
+import org.apache.solr.util.plugin.SolrCoreAware;
 import org.vufind.util.NormalizerFactory;
 
 /*
@@ -35,14 +48,47 @@ import org.vufind.util.NormalizerFactory;
  * by setting the parameter <core>authCoreName</core> in the handler configuration in
  * <code>solrconfig.xml</code>.
  *
+ * Heading counts are cached in the biblio core's user cache named
+ * <code>browseHeadingCounts</code>, if one is configured (see
+ * {@link HeadingCountRegenerator}). The name can be changed with the
+ * <code>headingCountCache</code> parameter.
+ *
+ * Setting <code>authorityMap</code> to <code>true</code> keeps the authority
+ * cross-references in memory (see {@link AuthorityMap}).  The map is rebuilt in
+ * the background whenever the authority core opens a new searcher, and lookups
+ * go to the authority index until it is ready.
+ *
+ * A source with <code>countVector</code> set to <code>true</code> keeps the
+ * count of every heading in memory (see {@link HeadingCountVector}).  The
+ * vector is rebuilt in the background whenever the biblio core opens a new
+ * searcher or the source a new browse index, and counts come from the bib
+ * index until it is ready.
+ *
+ * Setting <code>enrichmentThreads</code> to a positive number populates the
+ * items of a page (extras and authority data) concurrently, using a pool of
+ * that many threads shared by all requests.  The pool's threads are virtual
+ * where the JVM supports them, but there are never more than
+ * <code>enrichmentThreads</code> of them, so the load on the bib and authority
+ * indexes stays bounded either way.  <code>enrichmentThreadsPerRequest</code>
+ * (default 4) caps how many of them one request can use.
+ *
  * @author Mark Triggs
  * @author Tod Olson
  *
  */
-public class BrowseRequestHandler extends RequestHandlerBase
+public class BrowseRequestHandler extends RequestHandlerBase implements SolrCoreAware
 {
     public static final String DFLT_AUTH_CORE_NAME = "authority";
+    public static final String DFLT_COUNT_CACHE_NAME = "browseHeadingCounts";
     protected String authCoreName = null;
+    protected String countCacheName = null;
+    protected boolean useAuthorityMap = false;
+    protected int enrichmentThreadsPerRequest = 4;
+
+    private ExecutorService enrichmentExecutor = null;
+
+    private volatile AuthorityMap authorityMap = null;
+    private final AtomicBoolean buildingAuthorityMap = new AtomicBoolean(false);
 
     private Map<String,BrowseSource> sources = new HashMap<> ();
     private SolrParams solrParams;
@@ -60,6 +106,15 @@ public class BrowseRequestHandler extends RequestHandlerBase
         solrParams = SolrParams.toSolrParams(args);
 
         authCoreName = solrParams.get("authCoreName", DFLT_AUTH_CORE_NAME);
+        countCacheName = solrParams.get("headingCountCache", DFLT_COUNT_CACHE_NAME);
+        useAuthorityMap = solrParams.getBool("authorityMap", false);
+
+        int enrichmentThreads = solrParams.getInt("enrichmentThreads", 0);
+        enrichmentThreadsPerRequest = solrParams.getInt("enrichmentThreadsPerRequest",
+                                      enrichmentThreadsPerRequest);
+        if (enrichmentThreads > 0) {
+            enrichmentExecutor = newEnrichmentExecutor(enrichmentThreads);
+        }
 
         sources = new ConcurrentHashMap<> ();
 
@@ -75,6 +130,9 @@ public class BrowseRequestHandler extends RequestHandlerBase
             } catch (NumberFormatException e) {
                 // badly formatted param, leave as default -1
             }
+            // Number of SQLite connections to keep open for this source.
+            // Zero (not set or malformed) means one per available processor.
+            int poolSize = asInt(entry.get("poolSize"));
             sources.put(source,
                         new BrowseSource(entry.get("DBpath"),
                                          entry.get("field"),
@@ -82,7 +140,80 @@ public class BrowseRequestHandler extends RequestHandlerBase
                                          entry.get("normalizer"),
                                          // defaults to false if not set or malformed
                                          Boolean.parseBoolean(entry.get("retrieveBibId")),
-                                         maxBibListSize));
+                                         maxBibListSize,
+                                         poolSize,
+                                         // "sqlite" (default) or "mmap"
+                                         entry.get("backend"),
+                                         // "live" (default) or "snapshot"
+                                         entry.get("counts"),
+                                         // "live" (default) or "snapshot"
+                                         entry.get("xrefs"),
+                                         // defaults to false if not set or malformed
+                                         Boolean.parseBoolean(entry.get("countVector"))));
+        }
+    }
+
+
+    @Override
+    public void inform(SolrCore core)
+    {
+        core.addCloseHook(new CloseHook() {
+            public void preClose(SolrCore core) {
+                if (enrichmentExecutor != null) {
+                    enrichmentExecutor.shutdown();
+                }
+            }
+
+            public void postClose(SolrCore core) {
+            }
+        });
+    }
+
+
+    /*
+     * A fixed pool of `threads` threads: virtual threads if the JVM has them
+     * (Java 21 and later), otherwise daemon threads.
+     */
+    private ExecutorService newEnrichmentExecutor(int threads)
+    {
+        ThreadFactory factory = virtualThreadFactory();
+
+        if (factory != null) {
+            Log.info("Browse enrichment using %d virtual threads", threads);
+        } else {
+            Log.info("Browse enrichment using %d threads", threads);
+
+            factory = new ThreadFactory() {
+                private int count = 0;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "browse-enrichment-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+        }
+
+        return Executors.newFixedThreadPool(threads, factory);
+    }
+
+
+    /*
+     * Thread.ofVirtual().name("browse-enrichment-", 1).factory(), or null if
+     * this JVM has no virtual threads.
+     */
+    private ThreadFactory virtualThreadFactory()
+    {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                      .invoke(builder, "browse-enrichment-", 1L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            // Not available on this JVM
+            return null;
         }
     }
 
@@ -97,6 +228,141 @@ public class BrowseRequestHandler extends RequestHandlerBase
         }
     }
 
+    /*
+     * The authority map for `authSearcher`, or null if it isn't built yet.  A
+     * map for an older searcher is never returned; instead a new one is built
+     * in the background.
+     */
+    private AuthorityMap currentAuthorityMap(final CoreContainer cc, SolrIndexSearcher authSearcher)
+    {
+        if (!useAuthorityMap) {
+            return null;
+        }
+
+        AuthorityMap map = authorityMap;
+        if (map != null && map.isFor(authSearcher)) {
+            return map;
+        }
+
+        if (buildingAuthorityMap.compareAndSet(false, true)) {
+            Thread builder = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        buildAuthorityMap(cc);
+                    } finally {
+                        buildingAuthorityMap.set(false);
+                    }
+                }
+            }, "browse-authority-map");
+
+            builder.setDaemon(true);
+            builder.start();
+        }
+
+        return null;
+    }
+
+
+    private void buildAuthorityMap(CoreContainer cc)
+    {
+        SolrCore authCore = cc.getCore(authCoreName);
+        if (authCore == null) {
+            return;
+        }
+
+        try {
+            RefCounted<SolrIndexSearcher> searcherRef = authCore.getSearcher();
+            try {
+                long start = System.currentTimeMillis();
+
+                AuthorityMap map = AuthorityMap.build(searcherRef.get(),
+                                                      solrParams.get("preferredHeadingField"),
+                                                      solrParams.get("useInsteadHeadingField"),
+                                                      solrParams.get("seeAlsoHeadingField"),
+                                                      solrParams.get("scopeNoteField"));
+                authorityMap = map;
+
+                Log.info("Built authority map of %d headings in %d ms",
+                         map.size(), System.currentTimeMillis() - start);
+            } finally {
+                searcherRef.decref();
+            }
+        } catch (Exception e) {
+            Log.info("Failed to build authority map: " + e);
+        } finally {
+            authCore.close();
+        }
+    }
+
+    /*
+     * The count vector for `source` matching `bibSearcher` and `headingsDB`,
+     * or null if it isn't built yet.  As for the authority map, a vector for an
+     * older searcher or index is never returned; instead a new one is built in
+     * the background from the core's current searcher.
+     */
+    private HeadingCountVector currentCountVector(final SolrCore core,
+            final BrowseSource source,
+            SolrIndexSearcher bibSearcher,
+            HeadingsDB headingsDB)
+    {
+        if (!source.useCountVector) {
+            return null;
+        }
+
+        HeadingCountVector vector = source.countVector;
+        if (vector != null && vector.isFor(bibSearcher, headingsDB)) {
+            return vector;
+        }
+
+        if (source.buildingCountVector.compareAndSet(false, true)) {
+            Thread builder = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        buildCountVector(core, source);
+                    } finally {
+                        source.buildingCountVector.set(false);
+                    }
+                }
+            }, "browse-count-vector");
+
+            builder.setDaemon(true);
+            builder.start();
+        }
+
+        return null;
+    }
+
+
+    private void buildCountVector(SolrCore core, BrowseSource source)
+    {
+        HeadingsDB headingsDB = null;
+
+        try {
+            headingsDB = source.getHeadingsDB();
+
+            RefCounted<SolrIndexSearcher> searcherRef = core.getSearcher();
+            try {
+                long start = System.currentTimeMillis();
+
+                HeadingCountVector vector = HeadingCountVector.build(searcherRef.get(),
+                                            source.field,
+                                            headingsDB);
+                source.countVector = vector;
+
+                Log.info("Built count vector of %d headings for %s in %d ms",
+                         vector.size(), source.DBpath, System.currentTimeMillis() - start);
+            } finally {
+                searcherRef.decref();
+            }
+        } catch (Exception e) {
+            Log.info("Failed to build count vector for " + source.DBpath + ": " + e);
+        } finally {
+            if (headingsDB != null) {
+                source.returnHeadingsDB(headingsDB);
+            }
+        }
+    }
+
     /*
      *  TODO: Research question:
      *  Should we convert result from HashMap to Solr util classes
@@ -110,6 +376,36 @@ public class BrowseRequestHandler extends RequestHandlerBase
      */
 
 
+    /*
+     * The bib records matching the request's filter queries, or null if it
+     * has none.  Solr's filter cache keeps the result for later pages.
+     */
+    private DocSet filterDocs(SolrQueryRequest req) throws Exception
+    {
+        String[] fqs = req.getParams().getParams(CommonParams.FQ);
+
+        if (fqs == null) {
+            return null;
+        }
+
+        List<Query> filters = new ArrayList<> ();
+        for (String fq : fqs) {
+            if (fq != null && !fq.trim().isEmpty()) {
+                Query filter = QParser.getParser(fq, req).getQuery();
+                if (filter != null) {
+                    filters.add(filter);
+                }
+            }
+        }
+
+        if (filters.isEmpty()) {
+            return null;
+        }
+
+        return req.getSearcher().getDocSet(filters);
+    }
+
+
     @Override
     public void handleRequestBody(org.apache.solr.request.SolrQueryRequest req,
                                   org.apache.solr.response.SolrQueryResponse rsp)
@@ -152,25 +448,47 @@ public class BrowseRequestHandler extends RequestHandlerBase
         CoreDescriptor cd = core.getCoreDescriptor();
         CoreContainer cc = core.getCoreContainer();
         SolrCore authCore = cc.getCore(authCoreName);
+
+        // Sources serving cross-references from their index can do without
+        // the authority core.
+        if (authCore == null && !source.snapshotXrefs) {
+            throw new Exception("Authority core '" + authCoreName + "' not found.");
+        }
+
         //Must decrement RefCounted when finished!
-        RefCounted<SolrIndexSearcher> authSearcherRef = authCore.getSearcher();
+        RefCounted<SolrIndexSearcher> authSearcherRef = (authCore != null) ? authCore.getSearcher() : null;
 
         HeadingsDB headingsDB = null;
 
         try {
             headingsDB = source.getHeadingsDB();
-            SolrIndexSearcher authSearcher = authSearcherRef.get();
+
+            AuthDB authDB = null;
+            if (authSearcherRef != null) {
+                SolrIndexSearcher authSearcher = authSearcherRef.get();
+                authDB = new AuthDB(authSearcher,
+                                    solrParams.get("preferredHeadingField"),
+                                    solrParams.get("useInsteadHeadingField"),
+                                    solrParams.get("seeAlsoHeadingField"),
+                                    solrParams.get("scopeNoteField"),
+                                    currentAuthorityMap(cc, authSearcher));
+            }
+
+            DocSet filter = filterDocs(req);
 
             Browse browse = new Browse(headingsDB,
-                                       new BibDB(req.getSearcher(), source.field),
-                                       new AuthDB
-                                       (authSearcher,
-                                        solrParams.get("preferredHeadingField"),
-                                        solrParams.get("useInsteadHeadingField"),
-                                        solrParams.get("seeAlsoHeadingField"),
-                                        solrParams.get("scopeNoteField")),
+                                       new BibDB(req.getSearcher(), source.field, countCacheName, filter),
+                                       authDB,
                                        source.retrieveBibId,
-                                       source.maxBibListSize);
+                                       source.maxBibListSize,
+                                       enrichmentExecutor,
+                                       enrichmentThreadsPerRequest,
+                                       source.snapshotCounts,
+                                       source.snapshotXrefs,
+                                       // Filtered counts can't come from the vector
+                                       (filter == null) ?
+                                       currentCountVector(core, source, req.getSearcher(), headingsDB) :
+                                       null);
             Log.info("new browse source with HeadingsDB (" + source.DBpath + ", " + source.normalizer + ")");
 
             if (from != null) {
@@ -189,12 +507,14 @@ public class BrowseRequestHandler extends RequestHandlerBase
             result.put("startRow", rowid);
             result.put("offset", offset);
 
-            new MatchTypeResponse(from, list, rowid, rows, offset, NormalizerFactory.getNormalizer(source.normalizer)).addTo(result);
+            new MatchTypeResponse(from, list, rowid, rows, list.offset, NormalizerFactory.getNormalizer(source.normalizer)).addTo(result);
 
             rsp.add("Browse", result);
         } finally {
             //Must decrement RefCounted when finished!
-            authSearcherRef.decref();
+            if (authSearcherRef != null) {
+                authSearcherRef.decref();
+            }
 
             if (headingsDB != null) {
                 source.returnHeadingsDB(headingsDB);
@@ -1,7 +1,34 @@
 package org.vufind.solr.handler;
 
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
- * Provide access to the on-disk SQLite browse index.
+ * Provide access to the on-disk browse index.
+ * <p>
+ * The index is either an SQLite database built by CreateBrowseSQLite (the
+ * default) or, with {@code backend} set to {@code mmap}, a memory-mapped
+ * index built by CreateBrowseMMap.
+ * <p>
+ * With {@code counts} set to {@code snapshot}, headings are given the bib
+ * record counts stored in the index when it was built, where it has them,
+ * rather than being counted against the live bib index.
+ * <p>
+ * Likewise, with {@code xrefs} set to {@code snapshot}, headings are given the
+ * authority cross-references stored in the index when it was built with
+ * them, rather than having them looked up in the authority core.  Those were
+ * already limited to headings with bib hits at build time.
+ * <p>
+ * With {@code countVector} set to {@code true}, the counts of every heading
+ * are kept in memory for the current bib searcher (see
+ * {@link HeadingCountVector}).
+ * <p>
+ * A new version of the index is installed by writing it to
+ * {@code DBpath-updated} and then creating {@code DBpath-ready}.  Each version
+ * becomes a new generation, stored as {@code DBpath.N}.  New requests move to
+ * the newest generation as soon as it has been opened, while requests already
+ * running finish on the generation they started with.  The old generation is
+ * closed and deleted when its last request returns it.
  *
  */
 class BrowseSource
@@ -12,9 +39,19 @@ class BrowseSource
     public String normalizer;
     public boolean retrieveBibId;
     public int maxBibListSize;
+    public int poolSize;
+    public String backend;
+    public boolean snapshotCounts;
+    public boolean snapshotXrefs;
+    public boolean useCountVector;
+
+    /** Maintained by BrowseRequestHandler. */
+    volatile HeadingCountVector countVector = null;
+    final AtomicBoolean buildingCountVector = new AtomicBoolean(false);
 
     private HeadingsDB headingsDB = null;
-    private long loanCount = 0;
+    private long generation = 0;
+    private boolean installing = false;
 
 
     public BrowseSource(String DBpath,
@@ -22,7 +59,12 @@ class BrowseSource
                         String dropChars,
                         String normalizer,
                         boolean retrieveBibId,
-                        int maxBibListSize)
+                        int maxBibListSize,
+                        int poolSize,
+                        String backend,
+                        String counts,
+                        String xrefs,
+                        boolean useCountVector)
     {
         this.DBpath = DBpath;
         this.field = field;
@@ -30,29 +72,200 @@ class BrowseSource
         this.normalizer = normalizer;
         this.retrieveBibId = retrieveBibId;
         this.maxBibListSize = maxBibListSize;
+        this.poolSize = poolSize;
+        this.backend = (backend != null) ? backend : "sqlite";
+
+        this.snapshotCounts = isSnapshot("counts", counts);
+        this.snapshotXrefs = isSnapshot("xrefs", xrefs);
+        this.useCountVector = useCountVector;
     }
 
-    // Get a HeadingsDB instance.  Caller is expected to call `queryFinished` on
+
+    private boolean isSnapshot(String setting, String value)
+    {
+        if (value == null || "live".equals(value)) {
+            return false;
+        } else if ("snapshot".equals(value)) {
+            return true;
+        } else {
+            throw new IllegalArgumentException("Unknown " + setting + " setting '" + value +
+                                               "' for " + DBpath + " (expected live or snapshot)");
+        }
+    }
+
+    // Get a HeadingsDB instance.  Caller is expected to call `returnHeadingsDB` on
     // this when done with the instance.
-    public synchronized HeadingsDB getHeadingsDB()
+    //
+    // The instance is shared between concurrent requests: each query borrows one
+    // of its pooled connections, and each request holds a reference to the
+    // generation it was given until it returns it.
+    public HeadingsDB getHeadingsDB()
+    {
+        installUpdateIfReady();
+
+        synchronized (this) {
+            if (headingsDB == null) {
+                headingsDB = openCurrentGeneration();
+            }
+
+            headingsDB.retain();
+
+            return headingsDB;
+        }
+    }
+
+    public void returnHeadingsDB(HeadingsDB headingsDB)
+    {
+        headingsDB.release();
+    }
+
+
+    private HeadingsDB newHeadingsDB(String path)
+    {
+        if ("mmap".equals(backend)) {
+            return new MappedHeadingsDB(path, this.normalizer);
+        } else if ("sqlite".equals(backend)) {
+            return new SQLiteHeadingsDB(path, this.normalizer, this.poolSize);
+        } else {
+            throw new IllegalArgumentException("Unknown browse backend '" + backend +
+                                               "' for " + DBpath + " (expected sqlite or mmap)");
+        }
+    }
+
+
+    private File generationFile(long gen)
+    {
+        return new File(DBpath + "." + gen);
+    }
+
+
+    /*
+     * The highest generation number found next to DBpath, or 0 if there are
+     * none yet (generation 0 is DBpath itself).
+     */
+    private long latestGeneration()
     {
-        if (headingsDB == null) {
-            headingsDB = new HeadingsDB(this.DBpath, this.normalizer);
+        File base = new File(DBpath).getAbsoluteFile();
+        String prefix = base.getName() + ".";
+        String[] names = base.getParentFile().list();
+        long latest = 0;
+
+        if (names == null) {
+            return latest;
         }
 
-        // If no queries are running, it's a safe point to reopen the browse index.
-        if (loanCount <= 0) {
-            headingsDB.reopenIfUpdated();
-            loanCount = 0;
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.length() > prefix.length()) {
+                try {
+                    latest = Math.max(latest, Long.parseLong(name.substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
         }
 
-        loanCount += 1;
+        return latest;
+    }
+
 
-        return headingsDB;
+    /*
+     * Open the newest generation on disk, clearing away any older ones left
+     * behind by a previous run.
+     */
+    private HeadingsDB openCurrentGeneration()
+    {
+        generation = latestGeneration();
+
+        String path = DBpath;
+        if (generation > 0) {
+            path = generationFile(generation).getPath();
+
+            for (long gen = 0; gen < generation; gen++) {
+                File stale = (gen == 0) ? new File(DBpath) : generationFile(gen);
+                if (stale.exists()) {
+                    Log.info("Removing superseded browse index: " + stale);
+                    stale.delete();
+                }
+            }
+        }
+
+        try {
+            HeadingsDB db = newHeadingsDB(path);
+            db.openDB();
+            return db;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    public synchronized void returnHeadingsDB(HeadingsDB headingsDB)
+
+    /*
+     * If a new version of the index has been flagged as ready, open it as the
+     * next generation and make it current.  Only one request does the install;
+     * everyone else carries on with the current generation in the meantime.
+     */
+    private void installUpdateIfReady()
     {
-        loanCount -= 1;
+        File flag = new File(DBpath + "-ready");
+        File updated = new File(DBpath + "-updated");
+
+        if (!(flag.exists() && updated.exists())) {
+            return;
+        }
+
+        long nextGeneration;
+        synchronized (this) {
+            if (installing) {
+                return;
+            }
+
+            installing = true;
+            nextGeneration = Math.max(generation, latestGeneration()) + 1;
+        }
+
+        HeadingsDB newDB = null;
+
+        try {
+            Log.info("Index update event detected!");
+
+            File genFile = generationFile(nextGeneration);
+            if (!updated.renameTo(genFile)) {
+                Log.info("Couldn't move " + updated + " to " + genFile + ".  Update skipped.");
+                flag.delete();
+                return;
+            }
+            flag.delete();
+
+            Log.info("Installing new index version: " + genFile);
+            try {
+                newDB = newHeadingsDB(genFile.getPath());
+                newDB.openDB();
+            } catch (Exception e) {
+                // Keep serving the current generation.  Put the new file back
+                // (without its ready flag) so it can be inspected.
+                Log.info("Failed to open new browse index " + genFile + ": " + e);
+                if (newDB != null) {
+                    newDB.release();
+                    newDB = null;
+                }
+                genFile.renameTo(updated);
+                return;
+            }
+        } finally {
+            HeadingsDB oldDB = null;
+
+            synchronized (this) {
+                if (newDB != null) {
+                    oldDB = headingsDB;
+                    headingsDB = newDB;
+                    generation = nextGeneration;
+                }
+                installing = false;
+            }
+
+            if (oldDB != null) {
+                oldDB.retire();
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package org.vufind.solr.handler;
+
+import java.io.IOException;
+
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Autowarms the browse heading count cache when the biblio core opens a new
+ * searcher, by recounting each heading from the old cache against the new
+ * searcher.
+ * <p>
+ * Configure the cache in the biblio core's solrconfig.xml, inside
+ * {@code <query>}, under the name given by the handler's
+ * {@code headingCountCache} parameter:
+ *
+ * <pre>
+ * &lt;cache name="browseHeadingCounts"
+ *        class="solr.LRUCache"
+ *        size="100000"
+ *        initialSize="10000"
+ *        autowarmCount="10000"
+ *        regenerator="org.vufind.solr.handler.HeadingCountRegenerator"/&gt;
+ * </pre>
+ *
+ * Hit and miss statistics for the cache appear with the other caches in the
+ * Solr admin UI.
+ *
+ */
+public class HeadingCountRegenerator implements CacheRegenerator
+{
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public boolean regenerateItem(SolrIndexSearcher newSearcher,
+                                  SolrCache newCache,
+                                  SolrCache oldCache,
+                                  Object oldKey,
+                                  Object oldVal)
+    throws IOException
+    {
+        BibDB.CountKey key = (BibDB.CountKey) oldKey;
+
+        newCache.put(key, new BibDB(newSearcher, key.field).recordCount(key.heading));
+
+        return true;
+    }
+}
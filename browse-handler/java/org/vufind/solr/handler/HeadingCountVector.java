@@ -0,0 +1,90 @@
+package org.vufind.solr.handler;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * The bib record count of every heading in one browse index, as counted by
+ * one bib searcher, indexed by heading rowid.  Lets a browse page take its
+ * heading counts from an array instead of the bib index.
+ * <p>
+ * The vector is built by reading the headings in blocks of
+ * {@link #BLOCK_SIZE} and counting each block with
+ * {@link BibDB#recordCounts}, which sorts the block into term order and
+ * sweeps each segment's terms once.  That takes a while for a big index, so
+ * it's done in the background (see BrowseRequestHandler).  It costs four bytes
+ * per heading.
+ * <p>
+ * A vector only describes the searcher and headings index it was built from;
+ * use {@link #isFor} to check before using it.
+ *
+ */
+class HeadingCountVector
+{
+    static final int BLOCK_SIZE = 10000;
+
+    private final WeakReference<IndexSearcher> searcher;
+    private final WeakReference<HeadingsDB> headingsDB;
+    private final int[] counts;
+
+
+    private HeadingCountVector(IndexSearcher searcher, HeadingsDB headingsDB, int[] counts)
+    {
+        this.searcher = new WeakReference<> (searcher);
+        this.headingsDB = new WeakReference<> (headingsDB);
+        this.counts = counts;
+    }
+
+
+    /**
+     * True if this vector was built from {@code bibSearcher} and
+     * {@code headings}.
+     */
+    public boolean isFor(IndexSearcher bibSearcher, HeadingsDB headings)
+    {
+        return searcher.get() == bibSearcher && headingsDB.get() == headings;
+    }
+
+
+    public int size()
+    {
+        return counts.length - 1;
+    }
+
+
+    /**
+     * The count for the heading at {@code rowid}, or -1 if there's no such
+     * heading.
+     */
+    public int count(int rowid)
+    {
+        if (rowid < 1 || rowid >= counts.length) {
+            return -1;
+        }
+
+        return counts[rowid];
+    }
+
+
+    public static HeadingCountVector build(IndexSearcher bibSearcher, String field, HeadingsDB headings)
+    throws Exception
+    {
+        // No count cache: we'd fill it with every heading in the index
+        BibDB bibDB = new BibDB(bibSearcher, field);
+
+        int[] counts = new int[headings.totalCount + 1];
+
+        for (int rowid = 1; rowid <= headings.totalCount; rowid += BLOCK_SIZE) {
+            HeadingSlice block = headings.getHeadings(rowid, BLOCK_SIZE);
+            Map<String, Integer> blockCounts = bibDB.recordCounts(block.headings);
+
+            for (int i = 0; i < block.headings.size() && rowid + i < counts.length; i++) {
+                counts[rowid + i] = blockCounts.get(block.headings.get(i));
+            }
+        }
+
+        return new HeadingCountVector(bibSearcher, headings, counts);
+    }
+}
@@ -3,6 +3,8 @@ package org.vufind.solr.handler;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.vufind.util.CrossReferences;
+
 /**
  * Encapsulate a slice of a headings index.
  *
@@ -11,6 +13,18 @@ class HeadingSlice
 {
     public List<String> sort_keys = new ArrayList<> ();
     public List<String> headings = new ArrayList<> ();
+    /**
+     * Bib record counts stored in the index when it was built, one per
+     * heading (null where a heading wasn't counted).  Empty if the index
+     * has no counts.
+     */
+    public List<Integer> counts = new ArrayList<> ();
+    /**
+     * Authority cross-references stored in the index when it was built, one
+     * per heading (null where a heading has none).  Empty if the index has no
+     * cross-references.
+     */
+    public List<CrossReferences> xrefs = new ArrayList<> ();
     /**
      * Offset from beginning of index.
      * <p>
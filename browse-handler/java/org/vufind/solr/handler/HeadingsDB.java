@@ -1,11 +1,6 @@
 package org.vufind.solr.handler;
 
 import java.io.File;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 
 import org.vufind.util.Normalizer;
 import org.vufind.util.NormalizerFactory;
@@ -13,31 +8,32 @@ import org.vufind.util.NormalizerFactory;
 /**
  * Class to interact with a browse index and return a slice of the index.
  * <p>
- * Usually created by {@link BrowseSource}.
+ * Usually created by {@link BrowseSource}, one instance per generation of the
+ * browse index.  Instances are reference counted: BrowseSource holds one
+ * reference while the generation is current and each request holds another
+ * while it runs.
+ * <p>
+ * Subclasses provide the storage backend: {@link SQLiteHeadingsDB} for the
+ * SQLite databases built by CreateBrowseSQLite, and {@link MappedHeadingsDB}
+ * for the memory-mapped format built by CreateBrowseMMap.
  *
  */
-class HeadingsDB
+abstract class HeadingsDB
 {
-    Connection db;
     String path;
     long dbVersion;
     /** The total number of headings in this DB. */
     int totalCount;
     Normalizer normalizer;
 
-    public HeadingsDB(String path)
-    {
-        try {
-            this.path = path;
-            normalizer = NormalizerFactory.getNormalizer();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
+    /** References held by BrowseSource and by in-flight requests. */
+    private int refCount = 1;
+    private boolean deleteOnClose = false;
+
 
-    public HeadingsDB(String path, String normalizerClassName)
+    protected HeadingsDB(String path, String normalizerClassName)
     {
-        Log.info("constructor: HeadingsDB (" + path + ", " + normalizerClassName + ")");
+        Log.info("constructor: " + getClass().getSimpleName() + " (" + path + ", " + normalizerClassName + ")");
         try {
             this.path = path;
             normalizer = NormalizerFactory.getNormalizer(normalizerClassName);
@@ -47,129 +43,92 @@ class HeadingsDB
     }
 
 
-    private void openDB() throws Exception
-    {
-        if (!new File(path).exists()) {
-            throw new Exception("I couldn't find a browse index at: " + path +
-                                ".\nMaybe you need to create your browse indexes?");
-        }
+    /**
+     * Open the browse index at {@code path} and read {@code totalCount}.
+     */
+    abstract void openDB() throws Exception;
 
-        Class.forName("org.sqlite.JDBC");
 
-        db = DriverManager.getConnection("jdbc:sqlite:" + path);
-        db.setAutoCommit(false);
-        dbVersion = currentVersion();
+    /**
+     * Release everything held open by {@link #openDB()}.  Only called once no
+     * request is using this DB.
+     */
+    abstract void closeDB() throws Exception;
 
-        PreparedStatement countStmnt = db.prepareStatement(
-                                           "select count(1) as count from headings");
 
-        ResultSet rs = countStmnt.executeQuery();
-        rs.next();
+    /**
+     * Returns the rowid of the first heading that sorts at or after
+     * {@code from}, or {@code totalCount + 1} if there is none.
+     */
+    public abstract int getHeadingStart(String from) throws Exception;
 
-        totalCount = rs.getInt("count");
 
-        rs.close();
-        countStmnt.close();
-    }
+    /**
+     * Returns up to {@code rows} headings, starting at {@code rowid}.
+     */
+    public abstract HeadingSlice getHeadings(int rowid, int rows) throws Exception;
 
 
-    private long currentVersion()
+    protected void checkExists() throws Exception
     {
-        return new File(path).lastModified();
+        if (!new File(path).exists()) {
+            throw new Exception("I couldn't find a browse index at: " + path +
+                                ".\nMaybe you need to create your browse indexes?");
+        }
     }
 
 
-    public void reopenIfUpdated()
+    protected long currentVersion()
     {
-        File flag = new File(path + "-ready");
-        File updated = new File(path + "-updated");
-        if (db == null || (flag.exists() && updated.exists())) {
-            Log.info("Index update event detected!");
-            try {
-                if (flag.exists() && updated.exists()) {
-                    Log.info("Installing new index version...");
-                    if (db != null) {
-                        db.close();
-                    }
-
-                    File pathFile = new File(path);
-                    pathFile.delete();
-                    updated.renameTo(pathFile);
-                    flag.delete();
-
-                    Log.info("Reopening HeadingsDB");
-                    openDB();
-                } else if (db == null) {
-                    openDB();
-                }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        }
+        return new File(path).lastModified();
     }
 
-    public synchronized int getHeadingStart(String from) throws Exception
-    {
-        PreparedStatement rowStmnt = db.prepareStatement(
-                                         "select rowid from headings " +
-                                         "where key >= ? " +
-                                         "order by key " +
-                                         "limit 1");
-
-        rowStmnt.setBytes(1, normalizer.normalize(from));
 
-        ResultSet rs = rowStmnt.executeQuery();
-
-        if (rs.next()) {
-            return rs.getInt("rowid");
-        } else {
-            return totalCount + 1;   // past the end
-        }
+    /**
+     * Take another reference to this DB on behalf of a browse request.
+     * Each call must be matched by a call to {@link #release()}.
+     */
+    synchronized void retain()
+    {
+        refCount += 1;
     }
 
 
-    public synchronized HeadingSlice getHeadings(int rowid,
-            int rows)
-    throws Exception
+    /**
+     * Drop a reference to this DB.  When the last reference goes, the DB is
+     * closed and, if this generation has been retired, its file is deleted.
+     */
+    void release()
     {
-        HeadingSlice result = new HeadingSlice();
-
-        PreparedStatement rowStmnt = db.prepareStatement(
-                                         String.format("select * from headings " +
-                                                 "where rowid >= ? " +
-                                                 "order by rowid " +
-                                                 "limit %d ",
-                                                 rows)
-                                     );
-
-        rowStmnt.setInt(1, rowid);
-
-        ResultSet rs = null;
-
-        for (int attempt = 0; attempt < 3; attempt++) {
-            try {
-                rs = rowStmnt.executeQuery();
-                break;
-            } catch (SQLException e) {
-                Log.info("Retry number " + attempt + "...");
-                Thread.sleep(50);
+        synchronized (this) {
+            refCount -= 1;
+
+            if (refCount > 0) {
+                return;
             }
         }
 
-        if (rs == null) {
-            return result;
-        }
+        Log.info("Closing HeadingsDB: " + path);
 
-        while (rs.next()) {
-            result.sort_keys.add(rs.getString("key_text"));
-            result.headings.add(rs.getString("heading"));
+        try {
+            closeDB();
+        } catch (Exception e) {
+            Log.info("Failed to close HeadingsDB " + path + ": " + e);
         }
 
-        rs.close();
-        rowStmnt.close();
+        if (deleteOnClose && !new File(path).delete()) {
+            Log.info("Couldn't remove retired browse index: " + path);
+        }
+    }
 
-        result.total = Math.max(0, (totalCount - rowid) + 1);
 
-        return result;
+    /**
+     * Mark this DB as superseded by a newer generation.  Its file will be
+     * removed once all requests using it have finished.
+     */
+    void retire()
+    {
+        deleteOnClose = true;
+        release();
     }
-}
\ No newline at end of file
+}
@@ -43,6 +43,11 @@ class Log
         log().info(s);
     }
 
+    public static void error(String s)
+    {
+        log().severe(s);
+    }
+
     /**
      *
      * @param fmt   A format string for the log message
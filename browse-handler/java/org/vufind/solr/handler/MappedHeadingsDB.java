@@ -0,0 +1,215 @@
+package org.vufind.solr.handler;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.vufind.util.MappedHeadingsWriter;
+
+/**
+ * {@link HeadingsDB} backed by a memory-mapped browse index, as written by
+ * CreateBrowseMMap (see {@link MappedHeadingsWriter} for the layout).
+ * <p>
+ * Finding a heading is a binary search over the mapped sort keys and reading
+ * a page of headings is a walk along the offset tables, so there's no
+ * per-query setup and nothing to pool: any number of requests can read the
+ * mapping at once.
+ * <p>
+ * The file is mapped in 1GB chunks, since a single mapping can't exceed 2GB.
+ * Mappings are released by the garbage collector after {@link #closeDB()}.
+ *
+ */
+class MappedHeadingsDB extends HeadingsDB
+{
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    private MappedByteBuffer[] chunks;
+
+    private long keyOffsets;
+    private long keyTextOffsets;
+    private long headingOffsets;
+    private long keyData;
+    private long keyTextData;
+    private long headingData;
+
+
+    public MappedHeadingsDB(String path, String normalizerClassName)
+    {
+        super(path, normalizerClassName);
+    }
+
+
+    @Override
+    void openDB() throws Exception
+    {
+        checkExists();
+
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+
+            if (size < MappedHeadingsWriter.HEADER_LENGTH) {
+                throw new IOException("Not a mapped browse index (file too short): " + path);
+            }
+
+            chunks = new MappedByteBuffer[(int)((size + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = ((long) i) << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                        start,
+                                        Math.min(CHUNK_MASK + 1, size - start));
+            }
+        } finally {
+            // The mappings stay valid once the channel is closed
+            file.close();
+        }
+
+        byte[] magic = new byte[MappedHeadingsWriter.MAGIC.length];
+        read(0, magic, 0, magic.length);
+
+        if (!Arrays.equals(magic, MappedHeadingsWriter.MAGIC)) {
+            throw new IOException("Not a mapped browse index: " + path);
+        }
+
+        int version = chunks[0].getInt(magic.length);
+        if (version != MappedHeadingsWriter.VERSION) {
+            throw new IOException("Unsupported mapped browse index version " + version + ": " + path);
+        }
+
+        totalCount = chunks[0].getInt(magic.length + 4);
+
+        int section = magic.length + 8;
+        keyOffsets = chunks[0].getLong(section);
+        keyTextOffsets = chunks[0].getLong(section + 8);
+        headingOffsets = chunks[0].getLong(section + 16);
+        keyData = chunks[0].getLong(section + 24);
+        keyTextData = chunks[0].getLong(section + 32);
+        headingData = chunks[0].getLong(section + 40);
+
+        dbVersion = currentVersion();
+    }
+
+
+    @Override
+    void closeDB()
+    {
+        chunks = null;
+    }
+
+
+    /*
+     * Offset tables are 8-byte aligned, so a long never straddles two chunks.
+     */
+    private long getLong(long pos)
+    {
+        return chunks[(int)(pos >>> CHUNK_BITS)].getLong((int)(pos & CHUNK_MASK));
+    }
+
+
+    private byte getByte(long pos)
+    {
+        return chunks[(int)(pos >>> CHUNK_BITS)].get((int)(pos & CHUNK_MASK));
+    }
+
+
+    private void read(long pos, byte[] dst, int off, int len)
+    {
+        while (len > 0) {
+            ByteBuffer chunk = chunks[(int)(pos >>> CHUNK_BITS)].duplicate();
+            int chunkPos = (int)(pos & CHUNK_MASK);
+            int n = Math.min(len, chunk.limit() - chunkPos);
+
+            chunk.position(chunkPos);
+            chunk.get(dst, off, n);
+
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+
+    private String readString(long offsets, long data, int index)
+    {
+        long start = getLong(offsets + (index * 8L));
+        long end = getLong(offsets + ((index + 1) * 8L));
+        byte[] bytes = new byte[(int)(end - start)];
+
+        read(data + start, bytes, 0, bytes.length);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /*
+     * Compare the sort key of heading `index` with `key`, as unsigned bytes.
+     */
+    private int compareKey(int index, byte[] key)
+    {
+        long start = keyData + getLong(keyOffsets + (index * 8L));
+        long length = getLong(keyOffsets + ((index + 1) * 8L)) - getLong(keyOffsets + (index * 8L));
+        long len = Math.min(length, key.length);
+
+        for (int i = 0; i < len; i++) {
+            int x = (getByte(start + i) & 0xff);
+            int y = (key[i] & 0xff);
+            if (x != y) {
+                return x - y;
+            }
+        }
+
+        return Long.compare(length, key.length);
+    }
+
+
+    @Override
+    public int getHeadingStart(String from) throws Exception
+    {
+        byte[] key = normalizer.normalize(from);
+
+        // Find the first heading whose key is >= our key
+        int low = 0;
+        int high = totalCount;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (compareKey(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        // rowids start at 1, so totalCount + 1 means past the end
+        return low + 1;
+    }
+
+
+    @Override
+    public HeadingSlice getHeadings(int rowid,
+                                    int rows)
+    throws Exception
+    {
+        HeadingSlice result = new HeadingSlice();
+
+        int first = Math.max(rowid, 1) - 1;
+        int last = (int) Math.min((long) totalCount, (long) first + rows);
+
+        for (int i = first; i < last; i++) {
+            result.sort_keys.add(readString(keyTextOffsets, keyTextData, i));
+            result.headings.add(readString(headingOffsets, headingData, i));
+        }
+
+        result.total = Math.max(0, (totalCount - rowid) + 1);
+
+        return result;
+    }
+}
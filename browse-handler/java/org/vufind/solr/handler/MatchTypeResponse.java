@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.Map;
 
 import org.vufind.util.Normalizer;
+import org.vufind.util.SortKeys;
 
 public class MatchTypeResponse
 {
@@ -39,19 +40,89 @@ public class MatchTypeResponse
             return MatchType.EXACT;
         }
 
-        if (heading.length() > 0) {
-            for (int i = 1; i < heading.length(); i++) {
-                byte[] normalizedHeadingPrefix = normalizer.normalize(heading.substring(0, i));
-                if (Arrays.equals(normalizedQuery, normalizedHeadingPrefix)) {
-                    return MatchType.HEAD_OF_STRING;
-                }
-            }
+        if (heading.length() > 0 && isHeadOfString(heading, query, normalizedQuery)) {
+            return MatchType.HEAD_OF_STRING;
         }
 
         return MatchType.NONE;
     }
 
 
+    /*
+     * True if some proper prefix of `heading` normalizes to `normalizedQuery`.
+     *
+     * For normalizers whose keys of successively longer prefixes of a
+     * heading usually don't decrease (see SortKeys.isPrefixMonotonic), we
+     * binary search the prefix lengths instead of normalizing every prefix:
+     * O(log n) normalizations rather than O(n).  Other normalizers, or a
+     * prefix with no key, or keys we probe that turn out not to be in order,
+     * fall back to checking every prefix.
+     *
+     * A match found by the search is certain.  A miss isn't, since the keys
+     * we didn't probe may be out of order, so it's checked against the prefix
+     * as long as `query`, and we scan every prefix if the two disagree.  A
+     * miss can still be wrong for a heading whose keys are out of order and
+     * which matches at some other length.
+     */
+    private boolean isHeadOfString(String heading, String query, byte[] normalizedQuery)
+    {
+        if (normalizedQuery == null || !SortKeys.isPrefixMonotonic(normalizer)) {
+            return isHeadOfStringByScan(heading, normalizedQuery);
+        }
+
+        int low = 1;
+        int high = heading.length() - 1;
+
+        // Keys of the prefixes just outside [low, high], once we've seen them
+        byte[] lowKey = null;
+        byte[] highKey = null;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            byte[] key = normalizer.normalize(heading.substring(0, mid));
+
+            if (key == null ||
+                    (lowKey != null && SortKeys.compare(key, lowKey) < 0) ||
+                    (highKey != null && SortKeys.compare(key, highKey) > 0)) {
+                return isHeadOfStringByScan(heading, normalizedQuery);
+            }
+
+            int cmp = SortKeys.compare(key, normalizedQuery);
+
+            if (cmp == 0) {
+                return true;
+            } else if (cmp < 0) {
+                low = mid + 1;
+                lowKey = key;
+            } else {
+                high = mid - 1;
+                highKey = key;
+            }
+        }
+
+        int length = query.length();
+        if (length > 0 && length < heading.length() &&
+                Arrays.equals(normalizer.normalize(heading.substring(0, length)), normalizedQuery)) {
+            return isHeadOfStringByScan(heading, normalizedQuery);
+        }
+
+        return false;
+    }
+
+
+    private boolean isHeadOfStringByScan(String heading, byte[] normalizedQuery)
+    {
+        for (int i = 1; i < heading.length(); i++) {
+            byte[] normalizedHeadingPrefix = normalizer.normalize(heading.substring(0, i));
+            if (Arrays.equals(normalizedQuery, normalizedHeadingPrefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
     public void addTo(Map<String,Object> solrResponse)
     {
 
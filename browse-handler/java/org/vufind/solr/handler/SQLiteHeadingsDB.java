@@ -0,0 +1,375 @@
+package org.vufind.solr.handler;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.vufind.util.CrossReferences;
+
+/**
+ * {@link HeadingsDB} backed by the SQLite database built by CreateBrowseSQLite.
+ * <p>
+ * Queries are served from a bounded pool of read-only SQLite connections, so
+ * concurrent browse requests against the same index don't queue up behind a
+ * single connection.  Connections are opened lazily, up to {@code poolSize}.
+ *
+ */
+class SQLiteHeadingsDB extends HeadingsDB
+{
+    /** Pool size used when none is configured for the browse source. */
+    static final int DFLT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    private int poolSize;
+    /** True if the index has a count column (see {@link HeadingSlice#counts}). */
+    private boolean hasCounts = false;
+    /** True if the index has a heading_xrefs table (see {@link HeadingSlice#xrefs}). */
+    private boolean hasXrefs = false;
+    private List<Connection> connections = new ArrayList<> ();
+    private BlockingQueue<Connection> idleConnections = new LinkedBlockingQueue<> ();
+
+    public SQLiteHeadingsDB(String path, String normalizerClassName)
+    {
+        this(path, normalizerClassName, DFLT_POOL_SIZE);
+    }
+
+    public SQLiteHeadingsDB(String path, String normalizerClassName, int poolSize)
+    {
+        super(path, normalizerClassName);
+        this.poolSize = (poolSize > 0) ? poolSize : DFLT_POOL_SIZE;
+    }
+
+
+    @Override
+    void openDB() throws Exception
+    {
+        checkExists();
+
+        Class.forName("org.sqlite.JDBC");
+
+        Connection db = openConnection();
+        dbVersion = currentVersion();
+
+        try {
+            Map<String, String> metadata = readMetadata(db);
+
+            if (metadata.containsKey("row_count")) {
+                totalCount = Integer.parseInt(metadata.get("row_count"));
+            } else {
+                // Built before CreateBrowseSQLite recorded the count
+                totalCount = countHeadings(db);
+            }
+
+            checkSortKeys(db, metadata);
+
+            hasCounts = hasCountColumn(db);
+            hasXrefs = tableExists(db, "heading_xrefs");
+
+            Log.info("Opened " + path + ": " + totalCount + " headings" +
+                     (metadata.containsKey("built") ? ", built " + metadata.get("built") : ""));
+        } catch (Exception e) {
+            closeDB();
+            throw e;
+        }
+
+        returnConnection(db);
+    }
+
+
+    /*
+     * The contents of the browse_metadata table, or an empty map for indexes
+     * built without one.
+     */
+    private Map<String, String> readMetadata(Connection db) throws SQLException
+    {
+        Map<String, String> metadata = new HashMap<> ();
+
+        if (tableExists(db, "browse_metadata")) {
+            PreparedStatement metadataStmnt = db.prepareStatement(
+                                                  "select name, value from browse_metadata");
+            ResultSet rs = metadataStmnt.executeQuery();
+
+            while (rs.next()) {
+                metadata.put(rs.getString("name"), rs.getString("value"));
+            }
+
+            rs.close();
+            metadataStmnt.close();
+        }
+
+        return metadata;
+    }
+
+
+    private boolean tableExists(Connection db, String table) throws SQLException
+    {
+        PreparedStatement tableStmnt = db.prepareStatement(
+                                           "select 1 from sqlite_master " +
+                                           "where type = 'table' and name = ?");
+        tableStmnt.setString(1, table);
+
+        ResultSet rs = tableStmnt.executeQuery();
+        boolean exists = rs.next();
+        rs.close();
+        tableStmnt.close();
+
+        return exists;
+    }
+
+
+    private boolean hasCountColumn(Connection db) throws SQLException
+    {
+        PreparedStatement infoStmnt = db.prepareStatement("pragma table_info(headings)");
+        ResultSet rs = infoStmnt.executeQuery();
+
+        try {
+            while (rs.next()) {
+                if ("count".equals(rs.getString("name"))) {
+                    return true;
+                }
+            }
+
+            return false;
+        } finally {
+            rs.close();
+            infoStmnt.close();
+        }
+    }
+
+
+    private int countHeadings(Connection db) throws SQLException
+    {
+        PreparedStatement countStmnt = db.prepareStatement(
+                                           "select count(1) as count from headings");
+
+        ResultSet rs = countStmnt.executeQuery();
+        rs.next();
+
+        int count = rs.getInt("count");
+
+        rs.close();
+        countStmnt.close();
+
+        return count;
+    }
+
+
+    /*
+     * Make sure the index was built with our normalizer.  If it was built
+     * with a different one, browse positions would be quietly wrong, so
+     * refuse to open it.  Otherwise check that our normalizer gives the keys
+     * stored for a few headings: if it doesn't (after an ICU upgrade, say),
+     * positions may be a little off until the index is rebuilt, which is
+     * better than no browse at all, so we just report it.
+     */
+    private void checkSortKeys(Connection db, Map<String, String> metadata) throws Exception
+    {
+        String ours = normalizer.getClass().getName();
+        String builtWith = metadata.get("normalizer");
+
+        if (builtWith != null && !builtWith.equals(ours)) {
+            throw new Exception("The browse index at " + path + " was built with " + builtWith +
+                                ", but the browse configuration uses " + ours +
+                                ".  Rebuild the index or change the browse configuration.");
+        }
+
+        if (totalCount == 0) {
+            return;
+        }
+
+        PreparedStatement rowStmnt = db.prepareStatement(
+                                         "select key, key_text from headings where rowid = ?");
+
+        try {
+            for (int rowid : new int[] {1, (totalCount + 1) / 2, totalCount}) {
+                rowStmnt.setInt(1, rowid);
+                ResultSet rs = rowStmnt.executeQuery();
+
+                try {
+                    if (rs.next() &&
+                            !Arrays.equals(rs.getBytes("key"), normalizer.normalize(rs.getString("key_text")))) {
+                        Log.error("The sort keys in the browse index at " + path + " don't match the ones " +
+                                  ours + " gives now (checked at heading " + rowid + ").  Browse positions " +
+                                  "may be out until the index is rebuilt.");
+                        return;
+                    }
+                } finally {
+                    rs.close();
+                }
+            }
+        } finally {
+            rowStmnt.close();
+        }
+    }
+
+
+    private synchronized Connection openConnection() throws SQLException
+    {
+        Properties props = new Properties();
+        // SQLITE_OPEN_READONLY.  We never write to a browse index, and a
+        // read-only handle lets SQLite skip the locking a writer would need.
+        props.setProperty("open_mode", "1");
+
+        Connection db = DriverManager.getConnection("jdbc:sqlite:" + path, props);
+        db.setAutoCommit(false);
+        connections.add(db);
+
+        return db;
+    }
+
+
+    /*
+     * Take an idle connection from the pool, opening a new one if we're still
+     * under poolSize.  Otherwise wait for another request to hand one back.
+     */
+    private Connection borrowConnection() throws Exception
+    {
+        Connection db = idleConnections.poll();
+
+        if (db != null) {
+            return db;
+        }
+
+        synchronized (this) {
+            if (connections.size() < poolSize) {
+                return openConnection();
+            }
+        }
+
+        return idleConnections.take();
+    }
+
+
+    private void returnConnection(Connection db)
+    {
+        idleConnections.offer(db);
+    }
+
+
+    /*
+     * Only safe when no connections are on loan (see release()).
+     */
+    @Override
+    synchronized void closeDB() throws SQLException
+    {
+        idleConnections.clear();
+
+        for (Connection db : connections) {
+            db.close();
+        }
+
+        connections.clear();
+    }
+
+
+    @Override
+    public int getHeadingStart(String from) throws Exception
+    {
+        Connection db = borrowConnection();
+
+        try {
+            PreparedStatement rowStmnt = db.prepareStatement(
+                                             "select rowid from headings " +
+                                             "where key >= ? " +
+                                             "order by key " +
+                                             "limit 1");
+
+            rowStmnt.setBytes(1, normalizer.normalize(from));
+
+            ResultSet rs = rowStmnt.executeQuery();
+
+            try {
+                if (rs.next()) {
+                    return rs.getInt("rowid");
+                } else {
+                    return totalCount + 1;   // past the end
+                }
+            } finally {
+                rs.close();
+                rowStmnt.close();
+            }
+        } finally {
+            returnConnection(db);
+        }
+    }
+
+
+    @Override
+    public HeadingSlice getHeadings(int rowid,
+                                    int rows)
+    throws Exception
+    {
+        HeadingSlice result = new HeadingSlice();
+
+        Connection db = borrowConnection();
+
+        try {
+            // Cross-references share their heading's rowid, so they come
+            // back with the same range read.
+            String query = hasXrefs ?
+                           "select headings.*, heading_xrefs.xrefs as xrefs from headings " +
+                           "left join heading_xrefs on heading_xrefs.rowid = headings.rowid " +
+                           "where headings.rowid >= ? " +
+                           "order by headings.rowid " +
+                           "limit %d " :
+                           "select * from headings " +
+                           "where rowid >= ? " +
+                           "order by rowid " +
+                           "limit %d ";
+
+            PreparedStatement rowStmnt = db.prepareStatement(String.format(query, rows));
+
+            rowStmnt.setInt(1, rowid);
+
+            ResultSet rs = null;
+
+            for (int attempt = 0; attempt < 3; attempt++) {
+                try {
+                    rs = rowStmnt.executeQuery();
+                    break;
+                } catch (SQLException e) {
+                    Log.info("Retry number " + attempt + "...");
+                    Thread.sleep(50);
+                }
+            }
+
+            if (rs == null) {
+                rowStmnt.close();
+                return result;
+            }
+
+            while (rs.next()) {
+                result.sort_keys.add(rs.getString("key_text"));
+                result.headings.add(rs.getString("heading"));
+
+                if (hasCounts) {
+                    int count = rs.getInt("count");
+                    result.counts.add(rs.wasNull() ? null : count);
+                }
+
+                if (hasXrefs) {
+                    byte[] xrefs = rs.getBytes("xrefs");
+                    result.xrefs.add((xrefs == null) ? null : CrossReferences.decode(xrefs));
+                }
+            }
+
+            rs.close();
+            rowStmnt.close();
+        } finally {
+            returnConnection(db);
+        }
+
+        result.total = Math.max(0, (totalCount - rowid) + 1);
+
+        return result;
+    }
+}
\ No newline at end of file
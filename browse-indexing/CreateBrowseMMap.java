@@ -0,0 +1,66 @@
+//
+// Build a memory-mapped browse index from an SQLite browse database.
+//
+
+import java.io.*;
+
+import java.sql.*;
+
+import org.vufind.util.MappedHeadingsWriter;
+
+
+public class CreateBrowseMMap
+{
+    /*
+     * The SQLite database has already sorted the headings by key and numbered
+     * them, so copying them across in rowid order keeps rowids identical
+     * between the two formats.
+     */
+    public void create(String dbPath, String outputPath)
+    throws Exception
+    {
+        Class.forName("org.sqlite.JDBC");
+        Connection db = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+
+        File outputFile = new File(outputPath);
+        File tmpFile = new File(outputPath + ".tmp");
+        MappedHeadingsWriter writer = new MappedHeadingsWriter(tmpFile);
+
+        try {
+            Statement stat = db.createStatement();
+            ResultSet rs = stat.executeQuery("select key, key_text, heading " +
+                                             "from headings order by rowid");
+
+            while (rs.next()) {
+                writer.add(rs.getBytes("key"),
+                           rs.getBytes("key_text"),
+                           rs.getBytes("heading"));
+            }
+
+            rs.close();
+            stat.close();
+        } finally {
+            writer.close();
+            db.close();
+        }
+
+        if (!tmpFile.renameTo(outputFile)) {
+            throw new IOException("Couldn't rename " + tmpFile + " to " + outputFile);
+        }
+    }
+
+
+    public static void main(String args[])
+    throws Exception
+    {
+        if (args.length != 2) {
+            System.err.println
+            ("Usage: CreateBrowseMMap <sqlite db file> <mmap file>");
+            System.exit(0);
+        }
+
+        CreateBrowseMMap self = new CreateBrowseMMap();
+
+        self.create(args[0], args[1]);
+    }
+}
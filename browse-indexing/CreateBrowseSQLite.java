@@ -4,104 +4,281 @@
 
 import java.io.*;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-// Note that this version is coming from Solr!
-import org.apache.commons.codec.binary.Base64;
+import org.vufind.util.BrowseEntry;
+import org.vufind.util.HeadingsFileReader;
+import org.vufind.util.HeadingsFileWriter;
+import org.vufind.util.HeadingsFiles;
+import org.vufind.util.NormalizerFactory;
+import org.vufind.util.SortKeys;
 
 
 public class CreateBrowseSQLite
 {
     private Connection outputDB;
 
-    private String KEY_SEPARATOR = "\1";
+    // Scratch database holding all_headings while it's sorted, so the staged
+    // copy of the headings never takes up space in the output file
+    private File stagingFile = null;
+
+    // Sort the headings file as it's loaded (-Dbrowse.sort)
+    private boolean sortInput = Boolean.getBoolean("browse.sort");
+
+    // The headings file is already in key order (-Dbrowse.sorted), as written
+    // by SortBrowseHeadings.  Note that sort(1) doesn't produce this order,
+    // since it compares the base64-encoded keys.
+    private boolean sortedInput = Boolean.getBoolean("browse.sorted");
+
+
+    // Whether any heading came with cross-references (-Dbrowse.xrefs in
+    // PrintBrowseHeadings)
+    private boolean loadedXrefs = false;
 
 
     /*
-     * Like BufferedReader#readLine(), but only returns lines ended by a \r\n.
+     * Headings arriving in key order can go straight into the final table.
+     * Otherwise they're staged in all_headings, in a scratch database next to
+     * the output, and sorted by SQLite.
      */
-    private String readCRLFLine(BufferedReader br) throws IOException
+    private boolean loadInOrder()
     {
-        StringBuilder sb = new StringBuilder();
-
-        while (true) {
-            int ch = br.read();
-
-            if (ch >= 0) {
-                if (ch == '\r') {
-                    // This might either be a carriage return embedded in record
-                    // data (which we want to preserve) or the first part of the
-                    // \r\n end of line marker.
+        return sortInput || sortedInput;
+    }
 
-                    ch = br.read();
 
-                    if (ch == '\n') {
-                        // An end of line.  We're done.
-                        return sb.toString();
-                    }
+    private void loadHeadings(HeadingsFileReader in)
+    throws Exception
+    {
+        outputDB.setAutoCommit(false);
 
-                    // Must have been an embedded carriage return.  Keep it.
-                    sb.append('\r');
-                }
+        HeadingInserter inserter = new HeadingInserter(loadInOrder());
 
-                sb.append((char) ch);
+        try {
+            if (sortInput) {
+                // Unsorted input straight from PrintBrowseHeadings
+                new SortBrowseHeadings().sort(in, inserter);
             } else {
-                // EOF.  Show's over.
-                return null;
+                BrowseEntry entry;
+                while ((entry = in.next()) != null) {
+                    inserter.write(entry);
+                }
             }
+        } finally {
+            inserter.close();
         }
+
+        outputDB.commit();
+        outputDB.setAutoCommit(true);
     }
 
 
-    private void loadHeadings(BufferedReader br)
-    throws Exception
+    /*
+     * Inserts headings into all_headings or, if they arrive in key order,
+     * straight into headings.  In the second case each heading's rowid is its
+     * position in the browse order, and its cross-references go into
+     * heading_xrefs under the same rowid.
+     */
+    private class HeadingInserter implements HeadingsFileWriter
     {
-        int count = 0;
+        private PreparedStatement prep;
+        private PreparedStatement xrefsPrep = null;
+        private boolean inOrder;
+
+        private BrowseEntry last = null;
+        private long count = 0;
+
+        public HeadingInserter(boolean inOrder) throws SQLException
+        {
+            if (inOrder) {
+                prep = outputDB.prepareStatement("insert into headings (rowid, key, key_text, heading, count) " +
+                                                 "values (?, ?, ?, ?, ?)");
+                xrefsPrep = outputDB.prepareStatement("insert into heading_xrefs (rowid, xrefs) values (?, ?)");
+            } else {
+                prep = outputDB.prepareStatement("insert or ignore into staging.all_headings " +
+                                                 "(key, key_text, heading, count, xrefs) values (?, ?, ?, ?, ?)");
+            }
 
-        outputDB.setAutoCommit(false);
+            this.inOrder = inOrder;
+        }
+
+        public void write(BrowseEntry entry) throws IOException
+        {
+            if (inOrder && last != null) {
+                int cmp = SortBrowseHeadings.compare(last, entry);
+
+                if (cmp == 0) {
+                    // A duplicate of the heading we just loaded
+                    return;
+                }
+
+                if (SortKeys.compare(last.key, entry.key) > 0) {
+                    throw new IOException("Headings file isn't sorted by key (out of order at heading " +
+                                          (count + 1) + ").  Sort it with SortBrowseHeadings " +
+                                          "or load it with -Dbrowse.sort=true.");
+                }
+            }
+
+            try {
+                int col = 1;
+
+                if (inOrder) {
+                    prep.setLong(col++, count + 1);
+                }
+
+                prep.setBytes(col++, entry.key);
+                prep.setBytes(col++, entry.key_text.getBytes(StandardCharsets.UTF_8));
+                prep.setBytes(col++, entry.value.getBytes(StandardCharsets.UTF_8));
 
-        PreparedStatement prep = outputDB.prepareStatement(
-                                     "insert or ignore into all_headings (key, key_text, heading) values (?, ?, ?)");
+                if (entry.count >= 0) {
+                    prep.setInt(col++, entry.count);
+                } else {
+                    prep.setNull(col++, Types.INTEGER);
+                }
 
-        String line;
-        while ((line = readCRLFLine(br)) != null) {
-            String[] fields = line.split(KEY_SEPARATOR);
+                if (inOrder) {
+                    if (entry.xrefs != null) {
+                        xrefsPrep.setLong(1, count + 1);
+                        xrefsPrep.setBytes(2, entry.xrefs);
+                        xrefsPrep.addBatch();
+                    }
+                } else {
+                    prep.setBytes(col++, entry.xrefs);
+                }
 
-            if (fields.length == 3) {
-                // If we found the separator character, we have a key/value pair of
-                // Base64-encoded strings to decode and push into the batch:
-                prep.setBytes(1, Base64.decodeBase64(fields[0].getBytes()));
-                prep.setBytes(2, Base64.decodeBase64(fields[1].getBytes()));
-                prep.setBytes(3, Base64.decodeBase64(fields[2].getBytes()));
+                loadedXrefs |= (entry.xrefs != null);
 
                 prep.addBatch();
+
+                if ((count % 500000) == 0) {
+                    executeBatches();
+                }
+
+                count++;
+            } catch (SQLException e) {
+                throw new IOException(e);
             }
 
-            if ((count % 500000) == 0) {
-                prep.executeBatch();
-                prep.clearBatch();
+            last = entry;
+        }
+
+        private void executeBatches() throws SQLException
+        {
+            prep.executeBatch();
+            prep.clearBatch();
+
+            if (xrefsPrep != null) {
+                xrefsPrep.executeBatch();
+                xrefsPrep.clearBatch();
             }
+        }
+
+        public void close() throws IOException
+        {
+            try {
+                executeBatches();
+                prep.close();
 
-            count++;
+                if (xrefsPrep != null) {
+                    xrefsPrep.close();
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
         }
+    }
 
-        prep.executeBatch();
-        prep.close();
 
-        outputDB.commit();
-        outputDB.setAutoCommit(true);
+    private void createFinalTables(Statement stat)
+    throws SQLException
+    {
+        stat.executeUpdate("create table headings (key, key_text, heading, count);");
+        stat.executeUpdate("create table heading_xrefs (rowid integer primary key, xrefs blob);");
     }
 
 
-    private void setupDatabase()
+    private void setupDatabase(String outputPath)
     throws Exception
     {
         Statement stat = outputDB.createStatement();
 
+        // all_headings is left behind by versions that staged headings in the
+        // output file
         stat.executeUpdate("drop table if exists all_headings;");
-        stat.executeUpdate("create table all_headings (key, key_text, heading);");
-        stat.executeUpdate("PRAGMA synchronous = OFF;");
-        stat.execute("PRAGMA journal_mode = OFF;");
+        stat.executeUpdate("drop table if exists headings;");
+        stat.executeUpdate("drop table if exists heading_xrefs;");
+        stat.executeUpdate("drop table if exists browse_metadata;");
+
+        if (!loadInOrder()) {
+            stagingFile = new File(outputPath + "-staging");
+            stagingFile.delete();
+
+            PreparedStatement attach = outputDB.prepareStatement("attach database ? as staging");
+            attach.setString(1, stagingFile.getPath());
+            attach.executeUpdate();
+            attach.close();
+        }
+
+        stat.close();
+
+        for (String db : (stagingFile != null) ? new String[] {"main", "staging"} : new String[] {"main"}) {
+            stat = outputDB.createStatement();
+            stat.executeUpdate("PRAGMA " + db + ".synchronous = OFF;");
+            stat.execute("PRAGMA " + db + ".journal_mode = OFF;");
+            stat.close();
+        }
+
+        stat = outputDB.createStatement();
+
+        if (loadInOrder()) {
+            createFinalTables(stat);
+        } else {
+            stat.executeUpdate("create table staging.all_headings (key, key_text, heading, count, xrefs);");
+        }
+
+        stat.close();
+    }
+
+
+    /*
+     * Copy the staged headings into the final tables in key order, so their
+     * cross-references can be stored against the right rowids.
+     */
+    private void copyStagedHeadings()
+    throws Exception
+    {
+        Statement stat = outputDB.createStatement();
+        createFinalTables(stat);
+
+        outputDB.setAutoCommit(false);
+
+        HeadingInserter inserter = new HeadingInserter(true);
+        ResultSet rs = stat.executeQuery("select key, key_text, heading, count, xrefs " +
+                                         "from staging.all_headings order by key, key_text, heading;");
+
+        try {
+            while (rs.next()) {
+                BrowseEntry entry = new BrowseEntry(rs.getBytes(1),
+                                                    new String(rs.getBytes(2), StandardCharsets.UTF_8),
+                                                    new String(rs.getBytes(3), StandardCharsets.UTF_8));
+
+                int count = rs.getInt(4);
+                entry.count = rs.wasNull() ? -1 : count;
+                entry.xrefs = rs.getBytes(5);
+
+                inserter.write(entry);
+            }
+        } finally {
+            rs.close();
+            inserter.close();
+        }
+
+        outputDB.commit();
+        outputDB.setAutoCommit(true);
 
         stat.close();
     }
@@ -110,11 +287,23 @@ public class CreateBrowseSQLite
     private void buildOrderedTables()
     throws Exception
     {
+        if (!loadInOrder()) {
+            if (loadedXrefs) {
+                copyStagedHeadings();
+            } else {
+                Statement stat = outputDB.createStatement();
+                stat.executeUpdate("create table headings " +
+                                   "as select key, key_text, heading, count " +
+                                   "from staging.all_headings order by key;");
+                stat.close();
+            }
+        }
+
         Statement stat = outputDB.createStatement();
 
-        stat.executeUpdate("drop table if exists headings;");
-        stat.executeUpdate("create table headings " +
-                           "as select * from all_headings order by key;");
+        if (!loadedXrefs) {
+            stat.executeUpdate("drop table if exists heading_xrefs;");
+        }
 
         stat.executeUpdate("create index keyindex on headings (key);");
 
@@ -122,22 +311,121 @@ public class CreateBrowseSQLite
     }
 
 
+    private void dropStaging()
+    throws Exception
+    {
+        if (stagingFile == null) {
+            return;
+        }
+
+        Statement stat = outputDB.createStatement();
+        stat.executeUpdate("detach database staging;");
+        stat.close();
+
+        stagingFile.delete();
+        stagingFile = null;
+    }
+
+
+    /*
+     * Facts about the finished index for the browse handler to read when it
+     * opens the database, so it doesn't have to scan the headings table.
+     */
+    private void writeMetadata(String normalizer)
+    throws Exception
+    {
+        Statement stat = outputDB.createStatement();
+
+        stat.executeUpdate("create table browse_metadata (name text primary key, value);");
+
+        ResultSet rs = stat.executeQuery("select count(1), min(length(key)), " +
+                                         "max(length(key)), avg(length(key)), " +
+                                         "count(count) from headings;");
+        rs.next();
+
+        Map<String, Object> metadata = new LinkedHashMap<> ();
+        metadata.put("format_version", 1);
+        metadata.put("row_count", rs.getLong(1));
+        // Left out if we don't know (see `headingsNormalizer`)
+        if (normalizer != null) {
+            metadata.put("normalizer", normalizer);
+        }
+        metadata.put("built", Instant.now().toString());
+        metadata.put("key_length_min", rs.getLong(2));
+        metadata.put("key_length_max", rs.getLong(3));
+        metadata.put("key_length_mean", rs.getDouble(4));
+        // Headings with a bib count from PrintBrowseHeadings (-Dbrowse.counts)
+        metadata.put("counted_headings", rs.getLong(5));
+
+        rs.close();
+        stat.close();
+
+        PreparedStatement prep = outputDB.prepareStatement("insert into browse_metadata (name, value) values (?, ?)");
+
+        for (Map.Entry<String, Object> e : metadata.entrySet()) {
+            prep.setString(1, e.getKey());
+            prep.setObject(2, e.getValue());
+            prep.executeUpdate();
+        }
+
+        prep.close();
+    }
+
+
     public void create(String headingsFile, String outputPath)
     throws Exception
     {
         Class.forName("org.sqlite.JDBC");
         outputDB = DriverManager.getConnection("jdbc:sqlite:" + outputPath);
 
-        setupDatabase();
+        try {
+            setupDatabase(outputPath);
+
+            HeadingsFileReader in = HeadingsFiles.openReader(new File(headingsFile));
+
+            try {
+                loadHeadings(in);
+            } finally {
+                in.close();
+            }
+
+            buildOrderedTables();
+        } finally {
+            if (stagingFile != null) {
+                // Not detached if we failed part way
+                stagingFile.deleteOnExit();
+            }
+        }
+
+        dropStaging();
 
-        BufferedReader br = new BufferedReader
-        (new FileReader(headingsFile));
+        writeMetadata(headingsNormalizer(headingsFile));
+    }
+
+
+    /*
+     * The class of normalizer that gave the headings their sort keys: as
+     * recorded next to the headings file by PrintBrowseHeadings, or from
+     * -Dbrowse.normalizer if the file was sorted by something that doesn't
+     * copy the record along (sort(1), for example).
+     */
+    private String headingsNormalizer(String headingsFile) throws Exception
+    {
+        String recorded = HeadingsFiles.readNormalizer(new File(headingsFile));
+        if (recorded != null) {
+            return recorded;
+        }
 
-        loadHeadings(br);
+        String configured = System.getProperty("browse.normalizer");
+        if (configured != null) {
+            return NormalizerFactory.getNormalizer(configured).getClass().getName();
+        }
 
-        br.close();
+        System.err.println("WARNING: No normalizer recorded for " + headingsFile +
+                           " and -Dbrowse.normalizer isn't set.  The browse handler" +
+                           " won't be able to check the index was built with its normalizer.");
 
-        buildOrderedTables();
+        return null;
     }
 
 
@@ -1,6 +1,7 @@
 import org.apache.lucene.store.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
+import org.apache.lucene.util.Bits;
 import java.io.*;
 import java.util.*;
 
@@ -18,9 +19,18 @@ public class Leech
 
     private String field;
     private Normalizer normalizer;
+    private SortKeyCache sortKeyCache = null;
 
     TermsEnum tenum = null;
 
+    // Live docs of the segment (or merged index) `tenum` came from, null if
+    // there are no deletions
+    private Bits liveDocs = null;
+    private PostingsEnum postings = null;
+
+    // Enumerate the terms of all segments together (see `openNextTermsEnum`)
+    private boolean mergeTerms;
+
 
     public Leech(String indexPath,
                  String field) throws Exception
@@ -29,8 +39,8 @@ public class Leech
         // contains one reader per segment in our index).
         reader = DirectoryReader.open(FSDirectory.open(new File(indexPath).toPath()));
 
-        // Open the searcher that we'll use to verify that items are
-        // being used by a non-deleted document.
+        // Subclasses may want to search the index.  Our own terms are checked
+        // against the live docs of the segment they came from.
         searcher = new IndexSearcher(reader);
 
         // Extract the list of readers for our underlying segments.
@@ -39,31 +49,143 @@ public class Leech
 
         this.field = field;
 
+        mergeTerms = Boolean.getBoolean("browse.mergeterms");
+
         String normalizerClass = System.getProperty("browse.normalizer");
         normalizer = NormalizerFactory.getNormalizer(normalizerClass);
+
+        // Optional on-disk cache of sort keys from earlier runs
+        String sortKeyCachePath = System.getProperty("browse.sortkeycache");
+        if (sortKeyCachePath != null) {
+            sortKeyCache = SortKeyCache.open(sortKeyCachePath, normalizer);
+        }
+    }
+
+
+    // A Leech reading just one segment of `parent`'s index (see `split`)
+    private Leech(Leech parent, LeafReaderContext leaf)
+    {
+        reader = parent.reader;
+        searcher = parent.searcher;
+        leafReaders = new ArrayList<>(Collections.singletonList(leaf));
+        field = parent.field;
+        normalizer = parent.normalizer;
+        sortKeyCache = parent.sortKeyCache;
+        mergeTerms = false;
+    }
+
+
+    // Split the work of this Leech into one Leech per segment, so segments can
+    // be read on separate threads.  The parts share this Leech's reader,
+    // normalizer and sort key cache: when they're all finished, drop off this
+    // Leech rather than the parts.
+    //
+    // Leeches that can't be split (subclasses that read headings some other
+    // way, merged enumeration, or a Leech that has already started) come back
+    // as a single part.
+    public List<Leech> split()
+    {
+        if (getClass() != Leech.class || mergeTerms || tenum != null) {
+            return Collections.singletonList(this);
+        }
+
+        List<Leech> parts = new ArrayList<>();
+        for (LeafReaderContext leaf : leafReaders) {
+            parts.add(new Leech(this, leaf));
+        }
+
+        // The parts have it from here
+        leafReaders.clear();
+
+        return parts;
     }
 
 
     public byte[] buildSortKey(String heading)
     {
+        if (sortKeyCache != null) {
+            try {
+                return sortKeyCache.sortKey(heading);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
         return normalizer.normalize(heading);
     }
 
 
+    // The class of normalizer giving our sort keys
+    public String getNormalizerClassName()
+    {
+        return normalizer.getClass().getName();
+    }
+
+
     public void dropOff() throws IOException
     {
         reader.close();
+
+        if (sortKeyCache != null) {
+            sortKeyCache.close();
+            sortKeyCache = null;
+        }
     }
 
 
-    private boolean termExists(String t)
+    // True if the current term of `tenum` is used by a non-deleted document in
+    // the current segment (or index, when merging).  Without deletions there's
+    // nothing to check: every term enumerated has at least one document.
+    private boolean termIsLive() throws IOException
     {
-        try {
-            return (this.searcher.search(new ConstantScoreQuery(new TermQuery(new Term(this.field, t))),
-                                         1).totalHits > 0);
-        } catch (IOException e) {
-            return false;
+        if (liveDocs == null) {
+            return tenum.docFreq() > 0;
         }
+
+        postings = tenum.postings(postings, PostingsEnum.NONE);
+
+        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+            if (liveDocs.get(doc)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    // Select the next TermsEnum to work through, returning false if there
+    // are none left.
+    //
+    // By default that's the terms of each segment in turn, so a term used in
+    // several segments comes out once per segment.  With
+    // -Dbrowse.mergeterms=true we take a single merged view of all segments
+    // instead, and each distinct live term comes out exactly once, in term
+    // order.
+    private boolean openNextTermsEnum() throws IOException
+    {
+        while (!leafReaders.isEmpty()) {
+            Terms terms;
+
+            if (mergeTerms) {
+                leafReaders.clear();
+                terms = MultiFields.getTerms(reader, this.field);
+                liveDocs = MultiFields.getLiveDocs(reader);
+            } else {
+                // Select our next LeafReader to work from
+                LeafReader ir = leafReaders.remove(0).reader();
+                terms = ir.terms(this.field);
+                liveDocs = ir.getLiveDocs();
+            }
+
+            if (terms != null) {
+                tenum = terms.iterator();
+                return true;
+            }
+        }
+
+        // Nothing left to do
+        return false;
     }
 
 
@@ -73,36 +195,20 @@ public class Leech
     //
     public BrowseEntry next() throws Exception
     {
-        if (tenum == null) {
-            if (leafReaders.isEmpty()) {
-                // Nothing left to do
+        while (true) {
+            if (tenum == null && !openNextTermsEnum()) {
                 return null;
             }
 
-            // Select our next LeafReader to work from
-            LeafReader ir = leafReaders.remove(0).reader();
-            Terms terms = ir.terms(this.field);
-
-            if (terms == null) {
-                // Try the next reader
-                return next();
-            }
-
-            tenum = terms.iterator();
-        }
-
-        if (tenum.next() != null) {
-            String termText = tenum.term().utf8ToString();
-
-            if (termExists(termText)) {
-                return new BrowseEntry(buildSortKey(termText), termText, termText) ;
+            if (tenum.next() != null) {
+                if (termIsLive()) {
+                    String termText = tenum.term().utf8ToString();
+                    return new BrowseEntry(buildSortKey(termText), termText, termText) ;
+                }
             } else {
-                return this.next();
+                // Exhausted this reader
+                tenum = null;
             }
-        } else {
-            // Exhausted this reader
-            tenum = null;
-            return next();
         }
     }
 }
@@ -3,7 +3,8 @@
 //
 
 import java.io.*;
-import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 import org.apache.lucene.store.*;
 import org.apache.lucene.search.*;
@@ -11,9 +12,9 @@ import org.apache.lucene.index.*;
 import org.apache.lucene.document.*;
 
 import org.vufind.util.BrowseEntry;
-
-// Note that this version is coming from Solr!
-import org.apache.commons.codec.binary.Base64;
+import org.vufind.util.CrossReferences;
+import org.vufind.util.HeadingsFileWriter;
+import org.vufind.util.HeadingsFiles;
 
 
 public class PrintBrowseHeadings
@@ -26,48 +27,195 @@ public class PrintBrowseHeadings
 
     private String luceneField;
 
-    private String KEY_SEPARATOR = "\1";
-    private String RECORD_SEPARATOR = "\r\n";
+    // Worker threads write their output in chunks of this many headings
+    private static final int OUTPUT_CHUNK_SIZE = 10000;
+
+    // Number of segments to read in parallel (-Dbrowse.threads)
+    private int threads = Integer.getInteger("browse.threads", 1);
+
+    // Record each heading's bib count in the output (-Dbrowse.counts)
+    private boolean countRecords = Boolean.getBoolean("browse.counts");
+
+    // Record each heading's authority cross-references in the output
+    // (-Dbrowse.xrefs).  Needs an authority index.
+    private boolean recordXrefs = Boolean.getBoolean("browse.xrefs");
+
+    // As for the browse handler's AuthDB
+    private static final int MAX_PREFERRED_HEADINGS = 1000;
 
     /**
      * Load headings from the index into a file.
      *
+     * With more than one thread (-Dbrowse.threads), each segment of the index
+     * is read, normalized and encoded on a thread of its own.  The lines of
+     * different segments are interleaved in the output, which gets sorted
+     * afterwards anyway.
+     *
      * @param leech     Leech for pulling in headings
      * @param out       Output target
      * @param predicate Optional Predicate for filtering headings
      */
     private void loadHeadings(Leech leech,
-                              PrintWriter out,
+                              HeadingsFileWriter out,
                               Predicate predicate)
     throws Exception
     {
+        if (threads > 1) {
+            loadHeadingsInParallel(leech, out, predicate);
+            return;
+        }
+
         BrowseEntry h;
         while ((h = leech.next()) != null) {
-            // We use a byte array for the sort key instead of a string to ensure
-            // consistent sorting even if the index tool and browse handler are running
-            // with different locale settings. Using strings results in less predictable
-            // behavior.
-            byte[] sort_key = h.key;
-            String key_text = h.key_text;
-            String heading = h.value;
-
-            if (predicate != null &&
-                    !predicate.isSatisfiedBy(heading)) {
-                continue;
+            if (shouldOutput(h, predicate)) {
+                annotate(h);
+                out.write(h);
+            }
+        }
+    }
+
+
+    private void loadHeadingsInParallel(Leech leech,
+                                        final HeadingsFileWriter out,
+                                        final Predicate predicate)
+    throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+
+            for (final Leech part : leech.split()) {
+                results.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        List<BrowseEntry> chunk = new ArrayList<>();
+
+                        BrowseEntry h;
+                        while ((h = part.next()) != null) {
+                            if (shouldOutput(h, predicate)) {
+                                annotate(h);
+                                chunk.add(h);
+                            }
+
+                            if (chunk.size() >= OUTPUT_CHUNK_SIZE) {
+                                writeChunk(chunk, out);
+                                chunk.clear();
+                            }
+                        }
+
+                        writeChunk(chunk, out);
+
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    private void writeChunk(List<BrowseEntry> chunk, HeadingsFileWriter out)
+    throws IOException
+    {
+        synchronized (out) {
+            for (BrowseEntry h : chunk) {
+                out.write(h);
             }
+        }
+    }
+
+
+    private boolean shouldOutput(BrowseEntry h, Predicate predicate)
+    {
+        // Headings the normalizer couldn't produce a sort key for have no place
+        // in the browse order.
+        if (h.key == null) {
+            return false;
+        }
+
+        return (predicate == null || predicate.isSatisfiedBy(h.value));
+    }
+
+
+    /*
+     * Add the bib count and cross-references the browse handler would
+     * otherwise look up for this heading, if we've been asked to.
+     */
+    private void annotate(BrowseEntry h)
+    throws IOException
+    {
+        if (countRecords) {
+            h.count = bibCount(h.value);
+        }
+
+        if (recordXrefs && authSearcher != null) {
+            h.xrefs = crossReferences(h.value);
+        }
+    }
 
-            if (sort_key != null) {
-                // Output a delimited key/value pair, base64-encoding both strings
-                // to ensure that no characters overlap with the delimiter or introduce
-                // \n's that could interfere with line-based sorting of the file.
-                out.print(new String(Base64.encodeBase64(sort_key)) +
-                          KEY_SEPARATOR +
-                          new String(Base64.encodeBase64(key_text.getBytes(Charset.forName("UTF-8")))) +
-                          KEY_SEPARATOR +
-                          new String(Base64.encodeBase64(heading.getBytes(Charset.forName("UTF-8")))) +
-                          RECORD_SEPARATOR);
+
+    /*
+     * The encoded cross-references for a heading, or null if it has none.
+     * These are found as the handler's AuthDB finds them, except that
+     * see-also and use-instead headings without bib records are left out
+     * here rather than at query time.
+     */
+    private byte[] crossReferences(String heading)
+    throws IOException
+    {
+        List<String> seeAlso = new ArrayList<>();
+        List<String> useInstead = new ArrayList<>();
+        List<String> note = new ArrayList<>();
+
+        TopDocs own = authSearcher.search(new ConstantScoreQuery
+                                          (new TermQuery
+                                           (new Term(System.getProperty("field.preferred", "preferred"),
+                                                     heading))),
+                                          1);
+
+        if (own.scoreDocs.length > 0) {
+            Document doc = authSearcher.doc(own.scoreDocs[0].doc);
+
+            for (String value : doc.getValues(System.getProperty("field.seealso", "seeAlso"))) {
+                if (bibCount(value) > 0) {
+                    seeAlso.add(value);
+                }
+            }
+
+            note.addAll(Arrays.asList(doc.getValues(System.getProperty("field.scopenote", "scopeNote"))));
+        } else {
+            TopDocs records = authSearcher.search(new ConstantScoreQuery
+                                                  (new TermQuery
+                                                   (new Term(System.getProperty("field.insteadof", "insteadOf"),
+                                                             heading))),
+                                                  MAX_PREFERRED_HEADINGS);
+
+            for (ScoreDoc record : records.scoreDocs) {
+                Document doc = authSearcher.doc(record.doc);
+
+                for (String value : doc.getValues(System.getProperty("field.preferred", "preferred"))) {
+                    if (bibCount(value) > 0) {
+                        useInstead.add(value);
+                    }
+                }
             }
         }
+
+        CrossReferences xrefs = new CrossReferences(seeAlso, useInstead, note);
+
+        return xrefs.isEmpty() ? null : xrefs.encode();
     }
 
 
@@ -159,7 +307,9 @@ public class PrintBrowseHeadings
         IndexReader bibReader = DirectoryReader.open(FSDirectory.open(new File(bibPath).toPath()));
         bibSearcher = new IndexSearcher(bibReader);
 
-        PrintWriter out = new PrintWriter(new FileWriter(outFile));
+        HeadingsFileWriter out = HeadingsFiles.openWriter(new File(outFile),
+                                                          "binary".equals(System.getProperty("browse.format")),
+                                                          Boolean.getBoolean("browse.compress"));
 
         if (authPath != null) {
             try {
@@ -197,9 +347,13 @@ public class PrintBrowseHeadings
 
         loadHeadings(bibLeech, out, null);
 
+        String normalizer = bibLeech.getNormalizerClassName();
         bibLeech.dropOff();
 
         out.close();
+
+        // For CreateBrowseSQLite to record in the browse database
+        HeadingsFiles.writeNormalizer(new File(outFile), normalizer);
     }
 
 
@@ -0,0 +1,255 @@
+//
+// Sort and deduplicate a file of headings printed by PrintBrowseHeadings,
+// without shelling out to sort(1).
+//
+
+import java.io.*;
+
+import java.util.*;
+
+import org.vufind.util.BinaryHeadingsReader;
+import org.vufind.util.BinaryHeadingsWriter;
+import org.vufind.util.BrowseEntry;
+import org.vufind.util.HeadingsFileReader;
+import org.vufind.util.HeadingsFileWriter;
+import org.vufind.util.HeadingsFiles;
+import org.vufind.util.SortKeys;
+
+
+/*
+ * An external merge sort.  Headings are read into memory until their
+ * estimated size reaches the memory budget (browse.sortmemory, in MB), sorted
+ * and written to a temporary file as a run.  The runs are then merged, with
+ * duplicate headings dropped along the way.
+ *
+ * Headings are ordered by the bytes of their sort keys (compared unsigned, as
+ * SQLite compares blobs), then by key text and heading, so the output doesn't
+ * depend on the locale of the machine doing the sorting.
+ */
+public class SortBrowseHeadings
+{
+    private static final int DEFAULT_MEMORY_MB = 256;
+
+    // A rough allowance for the objects and array slot behind each entry
+    private static final int ENTRY_OVERHEAD = 120;
+
+    private static final Comparator<BrowseEntry> ORDER = new Comparator<BrowseEntry> () {
+        public int compare(BrowseEntry a, BrowseEntry b) {
+            return SortBrowseHeadings.compare(a, b);
+        }
+    };
+
+    private long memoryBudget;
+    private File tmpDir;
+
+
+    public SortBrowseHeadings()
+    {
+        memoryBudget = Long.getLong("browse.sortmemory", DEFAULT_MEMORY_MB) * 1024 * 1024;
+
+        String dir = System.getProperty("browse.sorttmpdir");
+        tmpDir = (dir == null) ? null : new File(dir);
+    }
+
+
+    public static int compare(BrowseEntry a, BrowseEntry b)
+    {
+        int result = SortKeys.compare(a.key, b.key);
+
+        if (result == 0) {
+            result = a.key_text.compareTo(b.key_text);
+        }
+
+        if (result == 0) {
+            result = a.value.compareTo(b.value);
+        }
+
+        return result;
+    }
+
+
+    private static long estimateSize(BrowseEntry entry)
+    {
+        return ENTRY_OVERHEAD + entry.key.length +
+               2L * (entry.key_text.length() + entry.value.length()) +
+               ((entry.xrefs != null) ? entry.xrefs.length : 0);
+    }
+
+
+    /**
+     * Write every heading from {@code in} to {@code out} in sort order, once
+     * each.
+     */
+    public void sort(HeadingsFileReader in, HeadingsFileWriter out)
+    throws IOException
+    {
+        List<File> runs = new ArrayList<> ();
+
+        try {
+            List<BrowseEntry> batch = new ArrayList<> ();
+            long batchSize = 0;
+
+            BrowseEntry entry;
+            while ((entry = in.next()) != null) {
+                batch.add(entry);
+                batchSize += estimateSize(entry);
+
+                if (batchSize >= memoryBudget) {
+                    runs.add(writeRun(batch));
+                    batch.clear();
+                    batchSize = 0;
+                }
+            }
+
+            if (runs.isEmpty()) {
+                // It all fit in memory
+                Collections.sort(batch, ORDER);
+                writeUnique(batch.iterator(), out);
+                return;
+            }
+
+            if (!batch.isEmpty()) {
+                runs.add(writeRun(batch));
+                batch.clear();
+            }
+
+            merge(runs, out);
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+
+    private void writeUnique(Iterator<BrowseEntry> entries, HeadingsFileWriter out)
+    throws IOException
+    {
+        BrowseEntry last = null;
+
+        while (entries.hasNext()) {
+            BrowseEntry entry = entries.next();
+
+            if (last == null || compare(last, entry) != 0) {
+                out.write(entry);
+                last = entry;
+            }
+        }
+    }
+
+
+    private File writeRun(List<BrowseEntry> batch) throws IOException
+    {
+        Collections.sort(batch, ORDER);
+
+        File run = File.createTempFile("browse-sort", ".run", tmpDir);
+        HeadingsFileWriter writer = new BinaryHeadingsWriter(new FileOutputStream(run));
+
+        try {
+            writeUnique(batch.iterator(), writer);
+        } finally {
+            writer.close();
+        }
+
+        return run;
+    }
+
+
+    private void merge(List<File> runs, HeadingsFileWriter out)
+    throws IOException
+    {
+        PriorityQueue<RunReader> queue = new PriorityQueue<> (runs.size(), new Comparator<RunReader> () {
+            public int compare(RunReader a, RunReader b) {
+                return SortBrowseHeadings.compare(a.current, b.current);
+            }
+        });
+
+        try {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+
+            BrowseEntry last = null;
+
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                BrowseEntry entry = reader.current;
+
+                if (last == null || compare(last, entry) != 0) {
+                    out.write(entry);
+                    last = entry;
+                }
+
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+
+    /*
+     * The current heading of one run being merged.
+     */
+    private static class RunReader
+    {
+        private HeadingsFileReader in;
+        BrowseEntry current;
+
+        public RunReader(File file) throws IOException
+        {
+            in = new BinaryHeadingsReader(new FileInputStream(file));
+        }
+
+        public boolean advance() throws IOException
+        {
+            current = in.next();
+            return current != null;
+        }
+
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+
+    public static void main(String args[])
+    throws Exception
+    {
+        if (args.length != 2) {
+            System.err.println
+            ("Usage: SortBrowseHeadings <headings file> <sorted headings file>");
+            System.exit(0);
+        }
+
+        HeadingsFileReader in = HeadingsFiles.openReader(new File(args[0]));
+        HeadingsFileWriter out = HeadingsFiles.openWriter(new File(args[1]),
+                                                          "binary".equals(System.getProperty("browse.format")),
+                                                          Boolean.getBoolean("browse.compress"));
+
+        try {
+            new SortBrowseHeadings().sort(in, out);
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        String normalizer = HeadingsFiles.readNormalizer(new File(args[0]));
+        if (normalizer != null) {
+            HeadingsFiles.writeNormalizer(new File(args[1]), normalizer);
+        }
+    }
+}
@@ -0,0 +1,580 @@
+//
+// A persistent cache of heading sort keys, so that rebuilding the browse
+// index doesn't need to normalize every heading again.
+//
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vufind.util.Normalizer;
+
+
+/**
+ * Heading to sort key cache, kept on disk between runs of the browse
+ * indexing tools.
+ * <p>
+ * The cache file is an append-only log of (heading, sort key) records behind
+ * a header identifying the normalizer that produced the keys.  At open, the
+ * log is memory-mapped and indexed with an in-memory open-addressing table of
+ * record positions, so a hit costs a hash probe and a compare against the
+ * mapped heading bytes.  Misses are normalized as usual and spooled to a side
+ * file, which is indexed the same way: a heading seen again later in the run
+ * (in another segment, say) is read back from the spool instead of being
+ * normalized and spooled again.
+ * <p>
+ * When the last user closes the cache, it is compacted: a new log is written
+ * holding only the records looked up during this run, and renamed over the
+ * old one.  Headings that have left the index are dropped that way, so one
+ * cache file should be used per browse type.
+ * <p>
+ * The header records the normalizer class and the keys it gives for a few
+ * probe strings, so upgrading ICU or changing normalizer settings invalidates
+ * the cache instead of reusing stale keys.
+ * <p>
+ * Safe for use by several threads at once.  The index of the old log doesn't
+ * change once it's loaded, so lookups in it take no lock; only marking records
+ * used and the spool (with its index) are synchronized.
+ */
+public class SortKeyCache
+{
+    private static final byte[] MAGIC = {'V', 'F', 'S', 'K', 'C', 'A', 'C', 'H'};
+    private static final int VERSION = 1;
+
+    private static final String[] PROBES = {
+        "a", "A", "Z", "é", "Ægir", "Smith, John, 1900-", "ß", "中文", "Ωmega", "1861-1865"
+    };
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    // Records whose key is null are stored with this key length
+    private static final int NO_KEY = -1;
+
+    private static final Map<String, SortKeyCache> openCaches = new HashMap<>();
+
+    private final File file;
+    private final Normalizer normalizer;
+    private final String fingerprint;
+    private int users = 0;
+
+    // The log from the previous run, if it was usable, and its index.  Both
+    // are only written while opening the cache.
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private final RecordTable logIndex = new RecordTable();
+
+    // Records of the old log used in this run, by record number
+    private final BitSet used = new BitSet();
+
+    // New records written during this run and their index, guarded by `spool`.
+    // `spoolFlushed` is how much of the spool is known to be on disk.
+    private final File spoolFile;
+    private final RandomAccessFile spoolAccess;
+    private final DataOutputStream spool;
+    private final RecordTable spoolIndex = new RecordTable();
+    private long spoolSize = 0;
+    private long spoolFlushed = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /*
+     * Open-addressing table of record positions: record position, heading
+     * hash and record number per slot, position -1 for an empty slot.
+     */
+    private static class RecordTable
+    {
+        long[] positions = new long[1024];
+        int[] hashes = new int[1024];
+        int[] numbers = new int[1024];
+        int size = 0;
+
+
+        RecordTable()
+        {
+            Arrays.fill(positions, -1);
+        }
+
+
+        void insert(int hash, long pos)
+        {
+            // Keep the table at most three quarters full
+            if ((size + 1) * 4L > positions.length * 3L) {
+                grow();
+            }
+
+            int mask = positions.length - 1;
+            int slot = hash & mask;
+            while (positions[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+
+            positions[slot] = pos;
+            hashes[slot] = hash;
+            numbers[slot] = size++;
+        }
+
+
+        private void grow()
+        {
+            long[] oldPositions = positions;
+            int[] oldHashes = hashes;
+            int[] oldNumbers = numbers;
+
+            positions = new long[oldPositions.length * 2];
+            hashes = new int[oldPositions.length * 2];
+            numbers = new int[oldPositions.length * 2];
+            Arrays.fill(positions, -1);
+
+            int mask = positions.length - 1;
+            for (int i = 0; i < oldPositions.length; i++) {
+                if (oldPositions[i] != -1) {
+                    int slot = oldHashes[i] & mask;
+                    while (positions[slot] != -1) {
+                        slot = (slot + 1) & mask;
+                    }
+                    positions[slot] = oldPositions[i];
+                    hashes[slot] = oldHashes[i];
+                    numbers[slot] = oldNumbers[i];
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Open the cache at {@code path} for use with {@code normalizer}.  Callers
+     * opening the same path share one cache; each must call {@link #close}.
+     */
+    public static SortKeyCache open(String path, Normalizer normalizer)
+    throws IOException
+    {
+        synchronized (openCaches) {
+            String canonical = new File(path).getCanonicalPath();
+            SortKeyCache cache = openCaches.get(canonical);
+
+            if (cache == null) {
+                cache = new SortKeyCache(new File(canonical), normalizer);
+                openCaches.put(canonical, cache);
+            } else if (!cache.fingerprint.equals(fingerprint(normalizer))) {
+                throw new IllegalArgumentException("Sort key cache " + path +
+                                                   " is already in use with a different normalizer");
+            }
+
+            cache.users++;
+
+            return cache;
+        }
+    }
+
+
+    private SortKeyCache(File file, Normalizer normalizer) throws IOException
+    {
+        this.file = file;
+        this.normalizer = normalizer;
+        this.fingerprint = fingerprint(normalizer);
+
+        if (file.exists()) {
+            loadLog();
+        }
+
+        spoolFile = File.createTempFile("sortkeys", ".tmp", file.getAbsoluteFile().getParentFile());
+        spoolAccess = new RandomAccessFile(spoolFile, "rw");
+        spool = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(spoolAccess.getChannel())));
+    }
+
+
+    private static String fingerprint(Normalizer normalizer)
+    {
+        int hash = 1;
+        for (String probe : PROBES) {
+            byte[] key = normalizer.normalize(probe);
+            hash = (31 * hash) + ((key == null) ? 0 : Arrays.hashCode(key));
+        }
+
+        return normalizer.getClass().getName() + ":" + Integer.toHexString(hash);
+    }
+
+
+    private void loadLog() throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            chunks = new MappedByteBuffer[(int)((size + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = ((long) i) << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                        start,
+                                        Math.min(CHUNK_MASK + 1, size - start));
+            }
+
+            long pos = readHeader(size);
+            if (pos < 0) {
+                System.err.println("Sort key cache " + file + " was built with a different " +
+                                   "normalizer.  Starting a new one.");
+                chunks = new MappedByteBuffer[0];
+                return;
+            }
+
+            byte[] heading = new byte[256];
+
+            while (pos + 4 <= size) {
+                int headingLength = readInt(pos);
+                if (headingLength < 0 || pos + 8 + headingLength > size) {
+                    break;
+                }
+
+                if (heading.length < headingLength) {
+                    heading = new byte[headingLength * 2];
+                }
+                read(pos + 4, heading, 0, headingLength);
+
+                int keyLength = readInt(pos + 4 + headingLength);
+                if (keyLength < NO_KEY) {
+                    break;
+                }
+
+                long next = pos + 8 + headingLength + Math.max(keyLength, 0);
+                if (next > size) {
+                    // Truncated by an interrupted run
+                    break;
+                }
+
+                logIndex.insert(hash(heading, headingLength), pos);
+                pos = next;
+            }
+        }
+    }
+
+
+    /*
+     * Check the header and return the position of the first record, or -1 if
+     * the log isn't one of ours for this normalizer.
+     */
+    private long readHeader(long size)
+    {
+        byte[] fp = fingerprint.getBytes(StandardCharsets.UTF_8);
+        long headerLength = MAGIC.length + 8 + fp.length;
+
+        if (size < headerLength) {
+            return -1;
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        read(0, magic, 0, magic.length);
+
+        if (!Arrays.equals(magic, MAGIC) ||
+                readInt(MAGIC.length) != VERSION ||
+                readInt(MAGIC.length + 4) != fp.length) {
+            return -1;
+        }
+
+        byte[] stored = new byte[fp.length];
+        read(MAGIC.length + 8, stored, 0, stored.length);
+
+        return Arrays.equals(stored, fp) ? headerLength : -1;
+    }
+
+
+    private void read(long pos, byte[] dst, int off, int len)
+    {
+        while (len > 0) {
+            ByteBuffer chunk = chunks[(int)(pos >>> CHUNK_BITS)].duplicate();
+            int chunkPos = (int)(pos & CHUNK_MASK);
+            int n = Math.min(len, chunk.limit() - chunkPos);
+
+            chunk.position(chunkPos);
+            chunk.get(dst, off, n);
+
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+
+    private int readInt(long pos)
+    {
+        MappedByteBuffer chunk = chunks[(int)(pos >>> CHUNK_BITS)];
+        int chunkPos = (int)(pos & CHUNK_MASK);
+
+        if (chunkPos + 4 <= chunk.limit()) {
+            return chunk.getInt(chunkPos);
+        }
+
+        // Straddles two chunks
+        byte[] b = new byte[4];
+        read(pos, b, 0, 4);
+
+        return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+    }
+
+
+    private byte readByte(long pos)
+    {
+        return chunks[(int)(pos >>> CHUNK_BITS)].get((int)(pos & CHUNK_MASK));
+    }
+
+
+    private boolean matches(long pos, byte[] bytes)
+    {
+        for (int i = 0; i < bytes.length; i++) {
+            if (readByte(pos + i) != bytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private static int hash(byte[] bytes, int length)
+    {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = (31 * h) + bytes[i];
+        }
+
+        // Spread the bits, since we mask off the low ones for the slot
+        return h ^ (h >>> 16);
+    }
+
+
+    /*
+     * The key stored in the old log for `heading`, with a found flag in
+     * `found[0]` (since the key itself may be null).
+     */
+    private byte[] lookup(byte[] heading, int hash, boolean[] found)
+    {
+        if (logIndex.size == 0) {
+            return null;
+        }
+
+        int mask = logIndex.positions.length - 1;
+
+        for (int slot = hash & mask; logIndex.positions[slot] != -1; slot = (slot + 1) & mask) {
+            long pos = logIndex.positions[slot];
+
+            if (logIndex.hashes[slot] == hash &&
+                    readInt(pos) == heading.length &&
+                    matches(pos + 4, heading)) {
+                found[0] = true;
+                synchronized (used) {
+                    used.set(logIndex.numbers[slot]);
+                }
+
+                int keyLength = readInt(pos + 4 + heading.length);
+                if (keyLength == NO_KEY) {
+                    return null;
+                }
+
+                byte[] key = new byte[keyLength];
+                read(pos + 8 + heading.length, key, 0, keyLength);
+                return key;
+            }
+        }
+
+        return null;
+    }
+
+
+    /*
+     * As `lookup`, for the records spooled during this run.  Call with the
+     * `spool` lock held.
+     */
+    private byte[] lookupSpooled(byte[] heading, int hash, boolean[] found)
+    throws IOException
+    {
+        int mask = spoolIndex.positions.length - 1;
+
+        for (int slot = hash & mask; spoolIndex.positions[slot] != -1; slot = (slot + 1) & mask) {
+            long pos = spoolIndex.positions[slot];
+
+            if (spoolIndex.hashes[slot] != hash || readSpool(pos, 4).getInt() != heading.length) {
+                continue;
+            }
+
+            ByteBuffer record = readSpool(pos + 4, heading.length + 4);
+            byte[] stored = new byte[heading.length];
+            record.get(stored);
+
+            if (Arrays.equals(stored, heading)) {
+                found[0] = true;
+
+                int keyLength = record.getInt();
+                if (keyLength == NO_KEY) {
+                    return null;
+                }
+
+                byte[] key = new byte[keyLength];
+                readSpool(pos + 8 + heading.length, keyLength).get(key);
+                return key;
+            }
+        }
+
+        return null;
+    }
+
+
+    private ByteBuffer readSpool(long pos, int length) throws IOException
+    {
+        if (pos + length > spoolFlushed) {
+            spool.flush();
+            spoolFlushed = spoolSize;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (spoolAccess.getChannel().read(buf, pos + buf.position()) < 0) {
+                throw new EOFException("Sort key spool " + spoolFile + " is truncated");
+            }
+        }
+        buf.flip();
+
+        return buf;
+    }
+
+
+    /*
+     * Spool a new record.  Call with the `spool` lock held.
+     */
+    private void append(byte[] heading, int hash, byte[] key) throws IOException
+    {
+        spoolIndex.insert(hash, spoolSize);
+        writeRecord(spool, heading, key);
+        spoolSize += 8 + heading.length + ((key == null) ? 0 : key.length);
+    }
+
+
+    private static void writeRecord(DataOutputStream out, byte[] heading, byte[] key)
+    throws IOException
+    {
+        out.writeInt(heading.length);
+        out.write(heading);
+        if (key == null) {
+            out.writeInt(NO_KEY);
+        } else {
+            out.writeInt(key.length);
+            out.write(key);
+        }
+    }
+
+
+    /**
+     * The sort key for {@code heading}: from the cache if we have it, or from
+     * the normalizer (and then added to the cache) if we don't.
+     */
+    public byte[] sortKey(String heading) throws IOException
+    {
+        byte[] headingBytes = heading.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(headingBytes, headingBytes.length);
+        boolean[] found = new boolean[1];
+
+        byte[] key = lookup(headingBytes, hash, found);
+
+        if (!found[0]) {
+            synchronized (spool) {
+                key = lookupSpooled(headingBytes, hash, found);
+            }
+        }
+
+        if (found[0]) {
+            hits.incrementAndGet();
+            return key;
+        }
+
+        // Normalize without holding the lock, so misses on other threads don't
+        // wait for us.
+        key = normalizer.normalize(heading);
+        misses.incrementAndGet();
+
+        synchronized (spool) {
+            // Unless another thread got there first
+            lookupSpooled(headingBytes, hash, found);
+            if (!found[0]) {
+                append(headingBytes, hash, key);
+            }
+        }
+
+        return key;
+    }
+
+
+    /**
+     * Release this user's hold on the cache.  The last user to close it
+     * compacts the log.
+     */
+    public void close() throws IOException
+    {
+        synchronized (openCaches) {
+            if (--users > 0) {
+                return;
+            }
+
+            openCaches.remove(file.getPath());
+        }
+
+        compact();
+    }
+
+
+    /*
+     * Write the records used in this run (old ones that were hit, then new
+     * ones) to a new log, and move it into place.
+     */
+    private void compact() throws IOException
+    {
+        spool.close();
+        spoolAccess.close();
+
+        File newFile = new File(file.getPath() + ".new");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile)))) {
+            byte[] fp = fingerprint.getBytes(StandardCharsets.UTF_8);
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(fp.length);
+            out.write(fp);
+
+            // Old records that were used, in their original order.  The spool
+            // has no duplicates, and none of its headings are in the old log.
+            long[] positions = new long[logIndex.size];
+            for (int slot = 0; slot < logIndex.positions.length; slot++) {
+                if (logIndex.positions[slot] != -1) {
+                    positions[logIndex.numbers[slot]] = logIndex.positions[slot];
+                }
+            }
+
+            for (int record = used.nextSetBit(0); record >= 0; record = used.nextSetBit(record + 1)) {
+                long pos = positions[record];
+                int headingLength = readInt(pos);
+                int keyLength = readInt(pos + 4 + headingLength);
+                byte[] bytes = new byte[8 + headingLength + Math.max(keyLength, 0)];
+                read(pos, bytes, 0, bytes.length);
+                out.write(bytes);
+            }
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(spoolFile))) {
+                byte[] buf = new byte[65536];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+            }
+        } finally {
+            spoolFile.delete();
+        }
+
+        chunks = null;
+        Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        System.err.println("Sort key cache " + file + ": " + hits + " hits, " + misses + " misses");
+    }
+}
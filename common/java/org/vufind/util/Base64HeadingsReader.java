@@ -0,0 +1,275 @@
+package org.vufind.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads heading records in the text format written by PrintBrowseHeadings:
+ * one record per {@code \r\n}-terminated line, holding the base64-encoded sort
+ * key, key text and heading separated by {@code \1}, optionally followed by
+ * the heading's bib count in decimal and its encoded cross-references (see
+ * {@link Base64HeadingsWriter}).  Other lines are skipped.
+ * <p>
+ * Files can run to tens of millions of lines, so rather than going through a
+ * Reader, lines are found by scanning a large byte buffer and each field is
+ * decoded straight from the buffer into a reused array.  The decoding is as
+ * lenient as commons-codec's {@code Base64.decodeBase64}: characters outside
+ * the base64 alphabets are ignored and decoding stops at the first padding
+ * character.
+ */
+public class Base64HeadingsReader implements HeadingsFileReader
+{
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte SEPARATOR = 1;
+    private static final byte[] DECODE_TABLE = new byte[256];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+
+        // The URL-safe alphabet
+        DECODE_TABLE['-'] = 62;
+        DECODE_TABLE['_'] = 63;
+    }
+
+    private InputStream in;
+    private boolean eof = false;
+
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+
+    private byte[] decoded = new byte[1024];
+
+
+    public Base64HeadingsReader(InputStream in)
+    {
+        this.in = in;
+    }
+
+
+    /*
+     * The position of the \r\n ending the line that starts at pos, reading
+     * more of the file as needed, or -1 if the file ends first.  An incomplete
+     * last line is dropped.
+     */
+    private int findLineEnd() throws IOException
+    {
+        int scanned = pos;
+
+        while (true) {
+            for (int i = scanned; i < limit - 1; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n') {
+                    return i;
+                }
+            }
+
+            if (eof) {
+                return -1;
+            }
+
+            // Keep the partial line and read some more after it.  A \r at the
+            // end of the buffer is scanned again in case its \n comes next.
+            scanned = Math.max(limit - 1, pos) - pos;
+            fill();
+        }
+    }
+
+
+    private void fill() throws IOException
+    {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+
+        if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+
+        int count = in.read(buf, limit, buf.length - limit);
+
+        if (count < 0) {
+            eof = true;
+        } else {
+            limit += count;
+        }
+    }
+
+
+    /*
+     * Decode the base64 in buf[start, end) into decoded, returning the number
+     * of bytes produced.
+     */
+    private int decode(int start, int end)
+    {
+        int maxLength = ((end - start) / 4 + 1) * 3;
+        if (decoded.length < maxLength) {
+            decoded = new byte[Math.max(maxLength, decoded.length * 2)];
+        }
+
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+
+            if (b == '=') {
+                break;
+            }
+
+            int value = DECODE_TABLE[b & 0xff];
+            if (value < 0) {
+                continue;
+            }
+
+            bits = (bits << 6) | value;
+            bitCount += 6;
+
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                decoded[length++] = (byte) (bits >> bitCount);
+            }
+        }
+
+        return length;
+    }
+
+
+    /*
+     * The count in buf[start, end), or -1 if it isn't a decimal number.
+     */
+    private int parseCount(int start, int end)
+    {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+
+        int count = 0;
+
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+
+            count = (count * 10) + (b - '0');
+        }
+
+        return count;
+    }
+
+
+    /*
+     * The record on the line buf[start, end), or null if it doesn't have
+     * three fields, four with a count or five with cross-references.  As with
+     * String.split, empty fields at the end of the line don't count.
+     */
+    private BrowseEntry parse(int start, int end)
+    {
+        while (end > start && buf[end - 1] == SEPARATOR) {
+            end--;
+        }
+
+        int first = -1;
+        int second = -1;
+        int third = -1;
+        int fourth = -1;
+
+        for (int i = start; i < end; i++) {
+            if (buf[i] == SEPARATOR) {
+                if (first < 0) {
+                    first = i;
+                } else if (second < 0) {
+                    second = i;
+                } else if (third < 0) {
+                    third = i;
+                } else if (fourth < 0) {
+                    fourth = i;
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        if (second < 0) {
+            return null;
+        }
+
+        int count = -1;
+        byte[] xrefs = null;
+
+        if (fourth >= 0) {
+            xrefs = Arrays.copyOf(decoded, decode(fourth + 1, end));
+            end = fourth;
+
+            // The count may be left empty
+            if (third + 1 < end) {
+                count = parseCount(third + 1, end);
+
+                if (count < 0) {
+                    return null;
+                }
+            }
+
+            end = third;
+        } else if (third >= 0) {
+            count = parseCount(third + 1, end);
+
+            if (count < 0) {
+                return null;
+            }
+
+            end = third;
+        }
+
+        int length = decode(start, first);
+        byte[] key = Arrays.copyOf(decoded, length);
+
+        length = decode(first + 1, second);
+        String keyText = new String(decoded, 0, length, StandardCharsets.UTF_8);
+
+        length = decode(second + 1, end);
+        String heading = new String(decoded, 0, length, StandardCharsets.UTF_8);
+
+        BrowseEntry entry = new BrowseEntry(key, keyText, heading);
+        entry.count = count;
+        entry.xrefs = xrefs;
+
+        return entry;
+    }
+
+
+    public BrowseEntry next() throws IOException
+    {
+        while (true) {
+            int lineEnd = findLineEnd();
+
+            if (lineEnd < 0) {
+                return null;
+            }
+
+            BrowseEntry entry = parse(pos, lineEnd);
+            pos = lineEnd + 2;
+
+            if (entry != null) {
+                return entry;
+            }
+        }
+    }
+
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
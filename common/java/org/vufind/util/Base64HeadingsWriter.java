@@ -0,0 +1,62 @@
+package org.vufind.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Writes heading records in the text format read by
+ * {@link Base64HeadingsReader}.  A record's bib count, if it has one, is
+ * written as a fourth field in decimal, and its encoded cross-references as a
+ * fifth (with an empty count field if there's no count).
+ */
+public class Base64HeadingsWriter implements HeadingsFileWriter
+{
+    private static final String KEY_SEPARATOR = "\1";
+    private static final String RECORD_SEPARATOR = "\r\n";
+
+    private Writer out;
+
+
+    public Base64HeadingsWriter(OutputStream out)
+    {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.ISO_8859_1));
+    }
+
+
+    /**
+     * The line for one record, including its line ending.
+     */
+    public static String format(BrowseEntry entry)
+    {
+        // Base64-encoding everything ensures that no characters overlap with the
+        // delimiter or introduce \n's that could interfere with line-based
+        // sorting of the file.
+        return new String(Base64.encodeBase64(entry.key)) +
+               KEY_SEPARATOR +
+               new String(Base64.encodeBase64(entry.key_text.getBytes(StandardCharsets.UTF_8))) +
+               KEY_SEPARATOR +
+               new String(Base64.encodeBase64(entry.value.getBytes(StandardCharsets.UTF_8))) +
+               ((entry.count >= 0 || entry.xrefs != null) ? KEY_SEPARATOR : "") +
+               ((entry.count >= 0) ? String.valueOf(entry.count) : "") +
+               ((entry.xrefs != null) ? KEY_SEPARATOR + new String(Base64.encodeBase64(entry.xrefs)) : "") +
+               RECORD_SEPARATOR;
+    }
+
+
+    public void write(BrowseEntry entry) throws IOException
+    {
+        out.write(format(entry));
+    }
+
+
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
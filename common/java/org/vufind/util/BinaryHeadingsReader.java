@@ -0,0 +1,110 @@
+package org.vufind.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads heading records written by {@link BinaryHeadingsWriter}.
+ */
+public class BinaryHeadingsReader implements HeadingsFileReader
+{
+    private DataInputStream in;
+
+
+    public BinaryHeadingsReader(InputStream in) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+
+        byte[] magic = new byte[BinaryHeadingsWriter.MAGIC.length];
+        this.in.readFully(magic);
+
+        if (!Arrays.equals(magic, BinaryHeadingsWriter.MAGIC)) {
+            throw new IOException("Not a binary headings file");
+        }
+
+        int version = this.in.readInt();
+        if (version != BinaryHeadingsWriter.VERSION) {
+            throw new IOException("Unsupported headings file version: " + version);
+        }
+    }
+
+
+    /*
+     * The next variable-length int, or -1 at the end of the file.
+     */
+    private int readVInt() throws IOException
+    {
+        int length = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("Truncated headings file");
+            }
+
+            length |= (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return length;
+            }
+        }
+
+        throw new IOException("Corrupt headings file");
+    }
+
+
+    private byte[] readField() throws IOException
+    {
+        int length = readVInt();
+        if (length < 0) {
+            throw new EOFException("Truncated headings file");
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+
+
+    public BrowseEntry next() throws IOException
+    {
+        int keyLength = readVInt();
+        if (keyLength < 0) {
+            return null;
+        }
+
+        byte[] key = new byte[keyLength];
+        in.readFully(key);
+
+        BrowseEntry entry = new BrowseEntry(key,
+                                            new String(readField(), StandardCharsets.UTF_8),
+                                            new String(readField(), StandardCharsets.UTF_8));
+
+        int count = readVInt();
+        if (count < 0) {
+            throw new EOFException("Truncated headings file");
+        }
+        entry.count = count - 1;
+
+        byte[] xrefs = readField();
+        entry.xrefs = (xrefs.length > 0) ? xrefs : null;
+
+        return entry;
+    }
+
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
@@ -0,0 +1,79 @@
+package org.vufind.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes heading records in a compact binary format, for passing headings
+ * between the indexing tools without the overhead of base64.
+ *
+ * <pre>
+ *   header    magic "VFHEADNG", int version
+ *   records   key, key_text, heading, count, xrefs
+ * </pre>
+ *
+ * Each of the first three fields is written as its length (a variable-length
+ * int: seven bits per byte, low bits first, high bit set on all but the last
+ * byte) followed by its bytes.  key_text and heading are UTF-8.  The count is
+ * the heading's bib count plus one, as a variable-length int, so zero means
+ * it wasn't counted.  xrefs holds the heading's encoded cross-references, as
+ * a length and bytes like the first three fields, with an empty field meaning
+ * none.
+ * <p>
+ * Unlike the base64 format, records aren't lines, so files in this format
+ * can't be sorted by sort(1); use SortBrowseHeadings instead.
+ */
+public class BinaryHeadingsWriter implements HeadingsFileWriter
+{
+    public static final byte[] MAGIC = {'V', 'F', 'H', 'E', 'A', 'D', 'N', 'G'};
+    public static final int VERSION = 1;
+
+    private static final byte[] NO_XREFS = new byte[0];
+
+    private DataOutputStream out;
+
+
+    public BinaryHeadingsWriter(OutputStream out) throws IOException
+    {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+
+        this.out.write(MAGIC);
+        this.out.writeInt(VERSION);
+    }
+
+
+    private void writeVInt(int n) throws IOException
+    {
+        while ((n & ~0x7f) != 0) {
+            out.write((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+
+    private void writeField(byte[] bytes) throws IOException
+    {
+        writeVInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    public void write(BrowseEntry entry) throws IOException
+    {
+        writeField(entry.key);
+        writeField(entry.key_text.getBytes(StandardCharsets.UTF_8));
+        writeField(entry.value.getBytes(StandardCharsets.UTF_8));
+        writeVInt(Math.max(entry.count, -1) + 1);
+        writeField((entry.xrefs != null) ? entry.xrefs : NO_XREFS);
+    }
+
+
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
@@ -5,6 +5,10 @@ public class BrowseEntry
     public byte[] key;
     public String key_text;
     public String value;
+    /** Number of bib records with this heading, or -1 if they weren't counted. */
+    public int count = -1;
+    /** The heading's cross-references, encoded by {@link CrossReferences}, or null. */
+    public byte[] xrefs = null;
 
     public BrowseEntry(byte[] key, String key_text, String value)
     {
@@ -0,0 +1,84 @@
+package org.vufind.util;
+
+import java.util.Arrays;
+
+import com.ibm.icu.text.Collator;
+import com.ibm.icu.text.RawCollationKey;
+
+/**
+ * Per-thread working space for the collator-based normalizers: a char buffer
+ * for cleaning up headings and a reusable collation key.
+ *
+ * Normalizers are shared between threads (see {@link NormalizerFactory}), so
+ * this state can't live on the normalizer itself.
+ */
+final class CollationScratch
+{
+    /** The characters matched by {@code \p{Punct}} in a Java regular expression. */
+    static final String ASCII_PUNCTUATION = "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~";
+
+    private static final ThreadLocal<CollationScratch> scratch = new ThreadLocal<CollationScratch>() {
+        @Override
+        protected CollationScratch initialValue() {
+            return new CollationScratch();
+        }
+    };
+
+    private char[] chars = new char[256];
+    private final RawCollationKey key = new RawCollationKey();
+
+
+    static CollationScratch get()
+    {
+        return scratch.get();
+    }
+
+
+    /**
+     * A buffer of at least {@code length} chars.  Its contents are undefined.
+     */
+    char[] chars(int length)
+    {
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+
+        return chars;
+    }
+
+
+    /**
+     * The collation key for {@code s}, as {@code CollationKey.toByteArray()}
+     * would return it, but built in a reused buffer.
+     */
+    byte[] keyBytes(Collator collator, String s)
+    {
+        collator.getRawCollationKey(s, key);
+
+        return Arrays.copyOf(key.bytes, key.size);
+    }
+
+
+    /**
+     * Append the collation key for {@code s} to {@code keys}.
+     */
+    void appendKey(Collator collator, String s, KeyArena keys)
+    {
+        collator.getRawCollationKey(s, key);
+        keys.append(key.bytes, key.size);
+    }
+
+
+    /**
+     * True if {@code cls} has its own version of {@code normalizeToKey(String)}
+     * rather than the one declared by {@code base}.
+     */
+    static boolean overridesNormalizeToKey(Class<?> cls, Class<?> base)
+    {
+        try {
+            return cls.getMethod("normalizeToKey", String.class).getDeclaringClass() != base;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.vufind.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The authority cross-references for a heading, as stored in the browse
+ * index when it's built with them: see-also headings, use-instead headings
+ * and scope notes.
+ * <p>
+ * Encoded as three lists (seeAlso, useInstead, note), each written as its
+ * number of values followed by each value's length and UTF-8 bytes, with all
+ * numbers as variable-length ints (seven bits per byte, low bits first, high
+ * bit set on all but the last byte).
+ */
+public class CrossReferences
+{
+    public final List<String> seeAlso;
+    public final List<String> useInstead;
+    public final List<String> note;
+
+
+    public CrossReferences(List<String> seeAlso, List<String> useInstead, List<String> note)
+    {
+        this.seeAlso = seeAlso;
+        this.useInstead = useInstead;
+        this.note = note;
+    }
+
+
+    public boolean isEmpty()
+    {
+        return seeAlso.isEmpty() && useInstead.isEmpty() && note.isEmpty();
+    }
+
+
+    public byte[] encode()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writeList(out, seeAlso);
+        writeList(out, useInstead);
+        writeList(out, note);
+
+        return out.toByteArray();
+    }
+
+
+    public static CrossReferences decode(byte[] bytes)
+    {
+        int[] pos = {0};
+
+        List<String> seeAlso = readList(bytes, pos);
+        List<String> useInstead = readList(bytes, pos);
+        List<String> note = readList(bytes, pos);
+
+        return new CrossReferences(seeAlso, useInstead, note);
+    }
+
+
+    private static void writeVInt(ByteArrayOutputStream out, int n)
+    {
+        while ((n & ~0x7f) != 0) {
+            out.write((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+
+    private static void writeList(ByteArrayOutputStream out, List<String> values)
+    {
+        writeVInt(out, values.size());
+
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVInt(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+
+    private static int readVInt(byte[] bytes, int[] pos)
+    {
+        int n = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos[0] >= bytes.length) {
+                break;
+            }
+
+            int b = bytes[pos[0]++];
+            n |= (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+
+        throw new IllegalArgumentException("Corrupt cross-references");
+    }
+
+
+    private static List<String> readList(byte[] bytes, int[] pos)
+    {
+        int count = readVInt(bytes, pos);
+
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        List<String> values = new ArrayList<> (count);
+
+        for (int i = 0; i < count; i++) {
+            int length = readVInt(bytes, pos);
+
+            if (length > bytes.length - pos[0]) {
+                throw new IllegalArgumentException("Corrupt cross-references");
+            }
+
+            values.add(new String(bytes, pos[0], length, StandardCharsets.UTF_8));
+            pos[0] += length;
+        }
+
+        return values;
+    }
+}
@@ -17,5 +17,26 @@ public class DeweyCallNormalizer implements Normalizer
         return key;
     }
 
+    /**
+     * Shelf keys are ASCII, so they're copied straight into the arena
+     * without an intermediate byte array.
+     */
+    @Override
+    public byte[] normalizeAll(String[] headings, int count, byte[] arena, int[] offsets)
+    {
+        KeyArena keys = new KeyArena(arena);
+        offsets[0] = 0;
+
+        for (int i = 0; i < count; i++) {
+            String n = new DeweyCallNumber(headings[i]).getShelfKey();
+            if (n != null) {
+                keys.appendDefaultEncoding(n);
+            }
+            offsets[i + 1] = keys.length;
+        }
+
+        return keys.bytes;
+    }
+
     private static final Logger log = Logger.getLogger(DeweyCallNormalizer.class.getName());
 }
@@ -0,0 +1,15 @@
+package org.vufind.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the heading records passed between the browse indexing tools.
+ */
+public interface HeadingsFileReader extends Closeable
+{
+    /**
+     * The next record, or null at the end of the file.
+     */
+    public BrowseEntry next() throws IOException;
+}
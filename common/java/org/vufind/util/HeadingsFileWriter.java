@@ -0,0 +1,12 @@
+package org.vufind.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes the heading records passed between the browse indexing tools.
+ */
+public interface HeadingsFileWriter extends Closeable
+{
+    public void write(BrowseEntry entry) throws IOException;
+}
@@ -0,0 +1,137 @@
+package org.vufind.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opens heading files in any of the formats understood by the indexing tools:
+ * the base64 text format or the binary format, each optionally gzipped.
+ * Readers work out the format of a file from its first few bytes.
+ * <p>
+ * The class of the normalizer that produced a file's sort keys is recorded
+ * next to it, in a file with the same name plus {@code .normalizer}.
+ */
+public class HeadingsFiles
+{
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+
+    public static HeadingsFileReader openReader(File file) throws IOException
+    {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+
+        try {
+            byte[] start = peek(in, 2);
+            if (start.length == 2 &&
+                    (start[0] & 0xff) == GZIP_MAGIC_1 &&
+                    (start[1] & 0xff) == GZIP_MAGIC_2) {
+                in = new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+            }
+
+            if (Arrays.equals(peek(in, BinaryHeadingsWriter.MAGIC.length), BinaryHeadingsWriter.MAGIC)) {
+                return new BinaryHeadingsReader(in);
+            } else {
+                return new Base64HeadingsReader(in);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * @param binary   write the binary format rather than base64 text
+     * @param compress gzip the file
+     */
+    public static HeadingsFileWriter openWriter(File file, boolean binary, boolean compress)
+    throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            if (compress) {
+                out = new GZIPOutputStream(out, 1 << 16);
+            }
+
+            return binary ? new BinaryHeadingsWriter(out) : new Base64HeadingsWriter(out);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+
+    private static File normalizerFile(File headingsFile)
+    {
+        return new File(headingsFile.getPath() + ".normalizer");
+    }
+
+
+    /**
+     * Record the class of the normalizer that produced the sort keys in
+     * {@code headingsFile}.
+     */
+    public static void writeNormalizer(File headingsFile, String normalizerClassName)
+    throws IOException
+    {
+        Files.write(normalizerFile(headingsFile).toPath(),
+                    (normalizerClassName + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * The class of the normalizer recorded for {@code headingsFile}, or null
+     * if none was.
+     */
+    public static String readNormalizer(File headingsFile)
+    throws IOException
+    {
+        File file = normalizerFile(headingsFile);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        String name = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+
+        return name.isEmpty() ? null : name;
+    }
+
+
+    /*
+     * Up to the first n bytes of a stream, leaving them to be read again.
+     */
+    private static byte[] peek(InputStream in, int n) throws IOException
+    {
+        byte[] bytes = new byte[n];
+        int read = 0;
+
+        in.mark(n);
+
+        try {
+            while (read < n) {
+                int count = in.read(bytes, read, n - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+        } finally {
+            in.reset();
+        }
+
+        return Arrays.copyOf(bytes, read);
+    }
+}
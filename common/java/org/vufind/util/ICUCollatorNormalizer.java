@@ -1,6 +1,6 @@
 package org.vufind.util;
 
-import java.util.regex.*;
+import java.util.regex.Pattern;
 
 import com.ibm.icu.text.CollationKey;
 import com.ibm.icu.text.Collator;
@@ -10,6 +10,10 @@ import com.ibm.icu.text.Collator;
  * The use of <code>Collator<code> takes into account diacritics and other Unicode features.
  * This normalizer should be suitable for most text fields.
  *
+ * The collator is frozen on first use, which makes it immutable and safe to
+ * share between threads.  Subclasses can still adjust its settings in their
+ * constructors.
+ *
  * @author Mark Triggs <mark@dishevelled.net>
  * @author Tod Olson <tod@uchicago.edu>
  *
@@ -22,12 +26,17 @@ public class ICUCollatorNormalizer implements Normalizer
     protected Pattern junkregexp =
         Pattern.compile("\\([^a-z0-9\\p{L} ]\\)");
 
+    private final boolean customKeys;
+    private volatile boolean frozen = false;
+
 
     public ICUCollatorNormalizer()
     {
         collator = Collator.getInstance();
         // Ignore case for the purposes of comparisons.
         collator.setStrength(Collator.SECONDARY);
+
+        customKeys = CollationScratch.overridesNormalizeToKey(getClass(), ICUCollatorNormalizer.class);
     }
 
     // TODO: remove getInstance when no longer needed
@@ -48,21 +57,117 @@ public class ICUCollatorNormalizer implements Normalizer
         return iCUCollatorNormalizer;
     }
 
+    /*
+     * Drop hyphens, turn other ASCII punctuation into spaces, squash runs of
+     * spaces and trim, in one pass over the heading.  This gives the same
+     * string as doing each step with a regular expression, without building
+     * an intermediate string at each step.
+     */
+    private String clean(String s, CollationScratch scratch)
+    {
+        int length = s.length();
+        char[] out = scratch.chars(length);
+        int n = 0;
+        boolean changed = false;
+
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+
+            if (c == '-') {
+                changed = true;
+            } else if (c == ' ' || (c < 128 && CollationScratch.ASCII_PUNCTUATION.indexOf(c) >= 0)) {
+                if (n > 0 && out[n - 1] == ' ') {
+                    changed = true;
+                } else {
+                    changed |= (c != ' ');
+                    out[n++] = ' ';
+                }
+            } else {
+                out[n++] = c;
+            }
+        }
+
+        int start = 0;
+        while (start < n && out[start] <= ' ') {
+            start++;
+        }
+
+        int end = n;
+        while (end > start && out[end - 1] <= ' ') {
+            end--;
+        }
+
+        if (!changed && start == 0 && end == length) {
+            return s;
+        }
+
+        return new String(out, start, end - start);
+    }
+
+    /*
+     * Punctuation has already been turned into spaces by the time this runs,
+     * so there are no parentheses left for junkregexp to match.  Only run it
+     * if there are.
+     */
+    private String removeJunk(String s)
+    {
+        if (s.indexOf('(') < 0) {
+            return s;
+        }
+
+        return junkregexp.matcher(s).replaceAll("");
+    }
+
+    /*
+     * The collator, frozen the first time it's used rather than in the
+     * constructor, so subclass constructors can still configure it.
+     */
+    protected Collator frozenCollator()
+    {
+        if (!frozen) {
+            synchronized (this) {
+                if (!collator.isFrozen()) {
+                    collator.freeze();
+                }
+                frozen = true;
+            }
+        }
+
+        return collator;
+    }
+
     // Breaking out the CollationKey makes testing and debugging easier
     public CollationKey normalizeToKey(String s)
     {
-        s = s.replaceAll("-", "")
-            .replaceAll("\\p{Punct}", " ")
-            .replaceAll(" +", " ")
-            .trim();
+        return frozenCollator().getCollationKey(removeJunk(clean(s, CollationScratch.get())));
+    }
 
-        s = junkregexp.matcher(s) .replaceAll("");
+    public byte[] normalize(String s)
+    {
+        if (customKeys) {
+            return normalizeToKey(s).toByteArray();
+        }
 
-        return collator.getCollationKey(s);
+        CollationScratch scratch = CollationScratch.get();
+        return scratch.keyBytes(frozenCollator(), removeJunk(clean(s, scratch)));
     }
 
-    public byte[] normalize(String s)
+    @Override
+    public byte[] normalizeAll(String[] headings, int count, byte[] arena, int[] offsets)
     {
-        return normalizeToKey(s).toByteArray();
+        if (customKeys) {
+            return Normalizer.super.normalizeAll(headings, count, arena, offsets);
+        }
+
+        CollationScratch scratch = CollationScratch.get();
+        KeyArena keys = new KeyArena(arena);
+        offsets[0] = 0;
+
+        for (int i = 0; i < count; i++) {
+            scratch.appendKey(frozenCollator(), removeJunk(clean(headings[i], scratch)), keys);
+            offsets[i + 1] = keys.length;
+        }
+
+        return keys.bytes;
     }
 }
@@ -0,0 +1,59 @@
+package org.vufind.util;
+
+import java.util.Arrays;
+
+/**
+ * A byte array that sort keys are appended to, growing as needed.  Used to
+ * implement {@link Normalizer#normalizeAll}.
+ */
+final class KeyArena
+{
+    byte[] bytes;
+    int length = 0;
+
+
+    KeyArena(byte[] bytes)
+    {
+        this.bytes = bytes;
+    }
+
+
+    private void ensureCapacity(int needed)
+    {
+        if (bytes.length < needed) {
+            bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+        }
+    }
+
+
+    void append(byte[] key, int len)
+    {
+        ensureCapacity(length + len);
+        System.arraycopy(key, 0, bytes, length, len);
+        length += len;
+    }
+
+
+    /**
+     * Append {@code s} encoded as {@code s.getBytes()} would encode it.  ASCII
+     * strings, such as call number shelf keys, are copied across directly.
+     */
+    void appendDefaultEncoding(String s)
+    {
+        int len = s.length();
+
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) >= 128) {
+                byte[] key = s.getBytes();
+                append(key, key.length);
+                return;
+            }
+        }
+
+        ensureCapacity(length + len);
+        for (int i = 0; i < len; i++) {
+            bytes[length + i] = (byte) s.charAt(i);
+        }
+        length += len;
+    }
+}
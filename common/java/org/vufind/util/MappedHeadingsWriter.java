@@ -0,0 +1,177 @@
+package org.vufind.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes a browse index in the memory-mapped format read by the browse
+ * handler's {@code MappedHeadingsDB}.
+ * <p>
+ * The file is laid out so the handler can map it and answer queries without
+ * decoding anything up front.  All numbers are big-endian.
+ *
+ * <pre>
+ *   header        magic "VFBROWSE", int version, int heading count (N),
+ *                 then six longs giving the file position of each section below
+ *   key offsets       long[N + 1]
+ *   key_text offsets  long[N + 1]
+ *   heading offsets   long[N + 1]
+ *   key data          packed sort keys
+ *   key_text data     packed UTF-8 strings
+ *   heading data      packed UTF-8 strings
+ * </pre>
+ *
+ * Entry {@code i} (rowid {@code i + 1}) of a column spans
+ * {@code offsets[i]} to {@code offsets[i + 1]} of that column's data section.
+ * Headings must be added in ascending order of their sort keys, compared as
+ * unsigned bytes, which is also the order SQLite gives the key column.
+ */
+public class MappedHeadingsWriter implements Closeable
+{
+    public static final byte[] MAGIC = {'V', 'F', 'B', 'R', 'O', 'W', 'S', 'E'};
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = MAGIC.length + 4 + 4 + (6 * 8);
+
+    private static final int COLUMNS = 3;
+
+    private File outputFile;
+    private File[] offsetFiles = new File[COLUMNS];
+    private File[] dataFiles = new File[COLUMNS];
+    private DataOutputStream[] offsets = new DataOutputStream[COLUMNS];
+    private OutputStream[] data = new OutputStream[COLUMNS];
+    private long[] dataLength = new long[COLUMNS];
+
+    private int count = 0;
+    private byte[] lastKey = null;
+
+
+    public MappedHeadingsWriter(File outputFile) throws IOException
+    {
+        this.outputFile = outputFile;
+
+        File dir = outputFile.getAbsoluteFile().getParentFile();
+
+        // Columns are spooled to temporary files while we go, since we don't
+        // know how big the offset tables will be until we've seen every heading.
+        for (int col = 0; col < COLUMNS; col++) {
+            offsetFiles[col] = File.createTempFile("browse-offsets", ".tmp", dir);
+            dataFiles[col] = File.createTempFile("browse-data", ".tmp", dir);
+
+            offsets[col] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetFiles[col])));
+            data[col] = new BufferedOutputStream(new FileOutputStream(dataFiles[col]));
+
+            offsets[col].writeLong(0);
+        }
+    }
+
+
+    /**
+     * Append the next heading.
+     *
+     * @throws IllegalArgumentException if {@code key} sorts before the
+     *         previous heading's key
+     */
+    public void add(byte[] key, byte[] keyText, byte[] heading) throws IOException
+    {
+        if (lastKey != null && SortKeys.compare(lastKey, key) > 0) {
+            throw new IllegalArgumentException("Headings must be added in sort key order " +
+                                               "(out of order at heading " + (count + 1) + ")");
+        }
+
+        if (count == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many headings");
+        }
+
+        writeColumn(0, key);
+        writeColumn(1, keyText);
+        writeColumn(2, heading);
+
+        lastKey = key;
+        count++;
+    }
+
+
+    private void writeColumn(int col, byte[] value) throws IOException
+    {
+        data[col].write(value);
+        dataLength[col] += value.length;
+        offsets[col].writeLong(dataLength[col]);
+    }
+
+
+    /**
+     * Assemble the final file from the spooled columns.
+     */
+    public void close() throws IOException
+    {
+        try {
+            for (int col = 0; col < COLUMNS; col++) {
+                offsets[col].close();
+                data[col].close();
+            }
+
+            long offsetTableLength = (count + 1) * 8L;
+            long[] sections = new long[COLUMNS * 2];
+            long position = HEADER_LENGTH;
+
+            for (int col = 0; col < COLUMNS; col++) {
+                sections[col] = position;
+                position += offsetTableLength;
+            }
+
+            for (int col = 0; col < COLUMNS; col++) {
+                sections[COLUMNS + col] = position;
+                position += dataLength[col];
+            }
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)));
+
+            try {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                for (long section : sections) {
+                    out.writeLong(section);
+                }
+
+                for (File f : offsetFiles) {
+                    copy(f, out);
+                }
+                for (File f : dataFiles) {
+                    copy(f, out);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            for (int col = 0; col < COLUMNS; col++) {
+                offsetFiles[col].delete();
+                dataFiles[col].delete();
+            }
+        }
+    }
+
+
+    private void copy(File f, OutputStream out) throws IOException
+    {
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        byte[] buf = new byte[65536];
+        int n;
+
+        try {
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
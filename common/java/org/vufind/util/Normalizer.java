@@ -3,6 +3,9 @@ package org.vufind.util;
 /**
  * An interface for alphabetical browse normalizers.
  *
+ * Implementations must be thread-safe: {@link NormalizerFactory} shares one
+ * instance of each normalizer class between all of its callers.
+ *
  * @author Tod Olson <tod@uchicago.edu>
  *
  */
@@ -23,4 +26,37 @@ public interface Normalizer
      */
     public byte[] normalize(String s);
 
+    /**
+     * Normalizes a block of headings into one shared byte array, saving an
+     * array per heading when many are normalized at once.
+     *
+     * The key for {@code headings[i]} is left in
+     * {@code arena[offsets[i]]} up to (but not including)
+     * {@code arena[offsets[i + 1]]}.  A heading with no key (where
+     * {@link #normalize} returns null) gets an empty range.
+     *
+     * @param headings strings to normalize
+     * @param count    how many of {@code headings} to normalize, from the start
+     * @param arena    space for the keys; grown if it isn't big enough
+     * @param offsets  receives the key boundaries; at least {@code count + 1} long
+     * @return the arena holding the keys, which is {@code arena} unless it had to grow
+     */
+    public default byte[] normalizeAll(String[] headings, int count, byte[] arena, int[] offsets)
+    {
+        KeyArena keys = new KeyArena(arena);
+        offsets[0] = 0;
+
+        for (int i = 0; i < count; i++) {
+            byte[] key = normalize(headings[i]);
+
+            if (key != null) {
+                keys.append(key, key.length);
+            }
+
+            offsets[i + 1] = keys.length;
+        }
+
+        return keys.bytes;
+    }
+
 }
\ No newline at end of file
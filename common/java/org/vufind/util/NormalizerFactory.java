@@ -1,8 +1,14 @@
 package org.vufind.util;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Simple class to instantiate and return a Normalizer object.
  *
+ * Normalizers are created once per class name and then shared, so they must
+ * be safe to use from several threads at once.
+ *
  * @author Tod Olson <tod@uchicago.edu>
  *
  */
@@ -12,13 +18,16 @@ public class NormalizerFactory
 
     private static String defaultNormalizerClassName = "org.vufind.util.ICUCollatorNormalizer";
 
+    private static final ConcurrentMap<String, Normalizer> normalizers = new ConcurrentHashMap<> ();
+
     public static String getDefaultNormalizerClassName()
     {
         return defaultNormalizerClassName;
     }
 
     /**
-     * Create an instance of a class which implements the <code>Normalizer</code> interface.
+     * Return the shared instance of a class which implements the <code>Normalizer</code>
+     * interface, creating it on first use.
      *
      * If normalizedClass is null, return the default normalizer.
      *
@@ -30,15 +39,26 @@ public class NormalizerFactory
     {
         if (normalizerClass == null) {
             return getNormalizer();
-        } else {
-            return (Normalizer)(Class.forName(normalizerClass)
-                                .getConstructor()
-                                .newInstance());
         }
+
+        Normalizer normalizer = normalizers.get(normalizerClass);
+
+        if (normalizer == null) {
+            // Two threads may both create one here; only the first is kept.
+            normalizer = (Normalizer)(Class.forName(normalizerClass)
+                                      .getConstructor()
+                                      .newInstance());
+            Normalizer existing = normalizers.putIfAbsent(normalizerClass, normalizer);
+            if (existing != null) {
+                normalizer = existing;
+            }
+        }
+
+        return normalizer;
     }
 
     /**
-     * Create an instance of the default <code>Normalizer</code> class.
+     * Return the shared instance of the default <code>Normalizer</code> class.
      *
      * @return instance of the default <code>Normalizer</code> class
      * @throws Exception if anything goes wrong with creating the class
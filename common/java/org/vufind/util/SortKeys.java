@@ -0,0 +1,49 @@
+package org.vufind.util;
+
+/**
+ * Helpers for the sort keys produced by a {@link Normalizer}.
+ */
+public class SortKeys
+{
+    /**
+     * Compare two sort keys as unsigned bytes.  This is the order of the
+     * headings in a browse index.
+     */
+    public static int compare(byte[] a, byte[] b)
+    {
+        int len = Math.min(a.length, b.length);
+
+        for (int i = 0; i < len; i++) {
+            int x = (a[i] & 0xff);
+            int y = (b[i] & 0xff);
+            if (x != y) {
+                return x - y;
+            }
+        }
+
+        return a.length - b.length;
+    }
+
+
+    /**
+     * True if the keys {@code normalizer} gives successive prefixes of a
+     * heading are usually in order, so that searching the prefixes by key is
+     * worth trying.
+     * <p>
+     * This is a heuristic, and callers must cope with it being wrong for some
+     * headings.  With the collation-based normalizers, adding a character can
+     * change the weights of the ones before it (contractions such as a
+     * tailored "ch", or Thai and Lao prevowels), and NACO cleanup keeps or
+     * drops trailing punctuation depending on what follows it.  LC call
+     * number keys are out of order too often to be worth it: adding a
+     * character can change how the whole number is parsed.
+     */
+    public static boolean isPrefixMonotonic(Normalizer normalizer)
+    {
+        Class<?> cls = normalizer.getClass();
+
+        return cls == ICUCollatorNormalizer.class ||
+               cls == NACONormalizer.class ||
+               cls == DeweyCallNormalizer.class;
+    }
+}
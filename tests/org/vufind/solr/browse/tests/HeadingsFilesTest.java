@@ -0,0 +1,269 @@
+package org.vufind.solr.browse.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.vufind.util.Base64HeadingsReader;
+import org.vufind.util.Base64HeadingsWriter;
+import org.vufind.util.BrowseEntry;
+import org.vufind.util.CrossReferences;
+import org.vufind.util.HeadingsFileReader;
+import org.vufind.util.HeadingsFileWriter;
+import org.vufind.util.HeadingsFiles;
+
+public class HeadingsFilesTest
+{
+    private static final List<BrowseEntry> ENTRIES = Arrays.asList(
+                new BrowseEntry(new byte[] {1, 2, 3}, "smith john", "Smith, John"),
+                counted(new BrowseEntry(new byte[] {1}, "a", "A"), 0),
+                new BrowseEntry(new byte[] {(byte) 0xff, 0}, "emile zola", "Émile Zola\r\nwith a line break"),
+                counted(new BrowseEntry(new byte[300], "long", repeat("x", 70000)), 123456),
+                withXrefs(new BrowseEntry(new byte[] {5}, "twain mark", "Twain, Mark"), -1),
+                withXrefs(new BrowseEntry(new byte[] {6}, "clemens samuel", "Clemens, Samuel"), 7)
+            );
+
+    private File file;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile("headings", ".tmp");
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+
+    @Test
+    public void base64RoundTrip() throws Exception
+    {
+        checkRoundTrip(false, false);
+    }
+
+
+    @Test
+    public void binaryRoundTrip() throws Exception
+    {
+        checkRoundTrip(true, false);
+    }
+
+
+    @Test
+    public void compressedBase64RoundTrip() throws Exception
+    {
+        checkRoundTrip(false, true);
+    }
+
+
+    @Test
+    public void compressedBinaryRoundTrip() throws Exception
+    {
+        checkRoundTrip(true, true);
+    }
+
+
+    @Test
+    public void emptyFile() throws Exception
+    {
+        HeadingsFileReader reader = HeadingsFiles.openReader(file);
+        try {
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+
+    @Test
+    public void base64ReaderMatchesLineSplitting() throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for (BrowseEntry entry : ENTRIES) {
+            sb.append(Base64HeadingsWriter.format(entry));
+        }
+
+        // Lines the old reader skipped or was lenient about
+        sb.append("\r\n");
+        sb.append("\1\1\r\n");
+        sb.append("QUJD\1REVG\r\n");
+        sb.append("QUJD\1REVG\1R0hJ\1SktM\r\n");
+        sb.append("QUJD\1REVG\1R0hJ\1\1\r\n");
+        sb.append("QUJD\1\1R0hJ\r\n");
+        sb.append("QU JD\1RE=VG\1R0h\r\n");
+        sb.append("QUJD\1REVG\1R0hJ\rSktM\r\n");
+        sb.append("LXtf\1-_-_\1YQ\r\n");
+        sb.append("QUJD\1REVG\1R0hJ\1\r\n");
+        sb.append("QUJD\1REVG\1R0hJ\1" + "42\r\n");
+        sb.append("QUJD\1REVG\1R0hJ\1" + "42x\r\n");
+        sb.append(Base64HeadingsWriter.format(new BrowseEntry(new byte[] {9}, "big", repeat("y", 1 << 20))));
+        sb.append("QUJD\1REVG\1R0hJ");
+
+        byte[] file = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        List<BrowseEntry> expected = referenceRead(file);
+        assertEquals(ENTRIES.size() + 8, expected.size());
+
+        HeadingsFileReader reader = new Base64HeadingsReader(new ByteArrayInputStream(file));
+
+        try {
+            for (BrowseEntry e : expected) {
+                BrowseEntry entry = reader.next();
+
+                assertArrayEquals(e.key, entry.key);
+                assertEquals(e.key_text, entry.key_text);
+                assertEquals(e.value, entry.value);
+                assertEquals(e.count, entry.count);
+                assertArrayEquals(e.xrefs, entry.xrefs);
+            }
+
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+
+    @Test
+    public void crossReferencesRoundTrip() throws Exception
+    {
+        CrossReferences xrefs = new CrossReferences(Arrays.asList("Twain, Mark", "Émile Zola"),
+                                                    new ArrayList<String>(),
+                                                    Arrays.asList(repeat("n", 200)));
+
+        CrossReferences decoded = CrossReferences.decode(xrefs.encode());
+
+        assertEquals(xrefs.seeAlso, decoded.seeAlso);
+        assertEquals(xrefs.useInstead, decoded.useInstead);
+        assertEquals(xrefs.note, decoded.note);
+    }
+
+
+    // Helpers
+
+    /*
+     * The line-at-a-time parsing CreateBrowseSQLite used to do, plus the
+     * optional count and cross-reference fields.
+     */
+    private List<BrowseEntry> referenceRead(byte[] file) throws Exception
+    {
+        List<BrowseEntry> result = new ArrayList<BrowseEntry>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(file),
+                                                                     StandardCharsets.ISO_8859_1));
+
+        while (true) {
+            StringBuilder line = new StringBuilder();
+            int ch;
+
+            while ((ch = br.read()) >= 0) {
+                if (ch == '\r') {
+                    ch = br.read();
+                    if (ch == '\n') {
+                        break;
+                    }
+                    line.append('\r');
+                }
+                line.append((char) ch);
+            }
+
+            if (ch < 0) {
+                return result;
+            }
+
+            String[] fields = line.toString().split("\1");
+            if (fields.length == 3 ||
+                    (fields.length == 4 && fields[3].matches("[0-9]+")) ||
+                    (fields.length == 5 && fields[3].matches("[0-9]*"))) {
+                BrowseEntry entry = new BrowseEntry(Base64.decodeBase64(fields[0].getBytes()),
+                                                    new String(Base64.decodeBase64(fields[1].getBytes()), StandardCharsets.UTF_8),
+                                                    new String(Base64.decodeBase64(fields[2].getBytes()), StandardCharsets.UTF_8));
+                if (fields.length >= 4 && !fields[3].isEmpty()) {
+                    entry.count = Integer.parseInt(fields[3]);
+                }
+                if (fields.length == 5) {
+                    entry.xrefs = Base64.decodeBase64(fields[4].getBytes());
+                }
+                result.add(entry);
+            }
+        }
+    }
+
+
+    private void checkRoundTrip(boolean binary, boolean compress) throws Exception
+    {
+        HeadingsFileWriter writer = HeadingsFiles.openWriter(file, binary, compress);
+        try {
+            for (BrowseEntry entry : ENTRIES) {
+                writer.write(entry);
+            }
+        } finally {
+            writer.close();
+        }
+
+        HeadingsFileReader reader = HeadingsFiles.openReader(file);
+        try {
+            for (BrowseEntry expected : ENTRIES) {
+                BrowseEntry entry = reader.next();
+
+                assertArrayEquals(expected.key, entry.key);
+                assertEquals(expected.key_text, entry.key_text);
+                assertEquals(expected.value, entry.value);
+                assertEquals(expected.count, entry.count);
+                assertArrayEquals(expected.xrefs, entry.xrefs);
+            }
+
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+
+    private static BrowseEntry counted(BrowseEntry entry, int count)
+    {
+        entry.count = count;
+        return entry;
+    }
+
+
+    private static BrowseEntry withXrefs(BrowseEntry entry, int count)
+    {
+        entry.count = count;
+        entry.xrefs = new CrossReferences(Arrays.asList(entry.value + " (see also)"),
+                                          Arrays.asList("Sam", "Samuel"),
+                                          new ArrayList<String>()).encode();
+        return entry;
+    }
+
+
+    private static String repeat(String s, int n)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(s);
+        }
+
+        return sb.toString();
+    }
+}
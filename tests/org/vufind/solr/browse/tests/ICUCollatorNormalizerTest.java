@@ -7,6 +7,8 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -15,6 +17,8 @@ import org.junit.runners.JUnit4;
 
 import org.vufind.util.ICUCollatorNormalizer;
 
+import com.ibm.icu.text.Collator;
+
 public class ICUCollatorNormalizerTest
 {
     private ICUCollatorNormalizer iCUCollatorNormalizer;
@@ -66,10 +70,71 @@ public class ICUCollatorNormalizerTest
     }
 
 
+    @Test
+    public void subclassesCanConfigureTheCollator()
+    {
+        ICUCollatorNormalizer primary = new ICUCollatorNormalizer() {
+            {
+                collator.setStrength(Collator.PRIMARY);
+            }
+        };
+
+        assertArrayEquals(primary.normalize("Apple"), primary.normalize("Äpple"));
+    }
+
+
+    @Test
+    public void keysMatchRegularExpressionCleanup()
+    {
+        String[] headings = {
+            "", " ", "-", "--", "a-b", " - leading", "trailing - ", "tab\there",
+            "\u0001control\u0001", "(x)", "a (-) b", "Smith, John, 1900-1980.",
+            "United States -- History -- Civil War, 1861-1865",
+            "Émile   Zola", "\"quoted\" 'words'", "\ud83d\ude00 emoji"
+        };
+
+        for (String heading : headings) {
+            assertArrayEquals(heading, regexKey(heading), iCUCollatorNormalizer.normalize(heading));
+        }
+
+        Random random = new Random(42);
+        String alphabet = "aZé -\t\u0001(),.;'\"[]_~«»·ʻ\u00a0\u2003";
+
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder heading = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                heading.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            assertArrayEquals(heading.toString(), regexKey(heading.toString()),
+                              iCUCollatorNormalizer.normalize(heading.toString()));
+        }
+    }
+
+
     //
     // Helpers
     //
 
+    // The cleanup ICUCollatorNormalizer did with regular expressions,
+    // which it must still match byte for byte.
+    private byte[] regexKey(String s)
+    {
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+
+        s = s.replaceAll("-", "")
+            .replaceAll("\\p{Punct}", " ")
+            .replaceAll(" +", " ")
+            .trim();
+
+        s = Pattern.compile("\\([^a-z0-9\\p{L} ]\\)").matcher(s).replaceAll("");
+
+        return collator.getCollationKey(s).toByteArray();
+    }
+
+
     private List<String> listOf(String ... args)
     {
         List<String> result = new ArrayList<String> ();
@@ -8,11 +8,15 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.vufind.util.NACONormalizer;
 
+import com.ibm.icu.text.Collator;
+
 public class NACONormalizerTest
 {
     private NACONormalizer nacoNormalizer;
@@ -385,10 +389,56 @@ public class NACONormalizerTest
         assertArrayEquals(nacoNormalizer.normalize("left‘quote"), nacoNormalizer.normalize("left'quote"));
         assertArrayEquals(nacoNormalizer.normalize("l’enfant"), nacoNormalizer.normalize("l'enfant"));
     }
+
+    @Test
+    public void keysMatchRegularExpressionCleanup()
+    {
+        String[] headings = {
+            "", " ", "'", "a'b", "[bracketed]", " ‘quoted’ ", "tab\there\n",
+            "\u0001control\u0001", "a \u0001 b", "ʻOkina", "Smith, John, 1900-1980.",
+            "¿Qué? ¡Sí!", "«French» · ± ⁺ ⁻ ℗ ® © °", "\ud83d\ude00 emoji"
+        };
+
+        for (String heading : headings) {
+            assertArrayEquals(heading, regexKey(heading), nacoNormalizer.normalize(heading));
+        }
+
+        Random random = new Random(42);
+        String alphabet = "aZé -\t\n\u000B\u0001(),.;'\"[]_~«»·ʻʿ‘’¿\u00a0\u2003";
+
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder heading = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                heading.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            assertArrayEquals(heading.toString(), regexKey(heading.toString()),
+                              nacoNormalizer.normalize(heading.toString()));
+        }
+    }
+
+
     //
     // Helpers
     //
 
+    // The cleanup NACONormalizer did with regular expressions, which it must
+    // still match byte for byte.
+    private byte[] regexKey(String s)
+    {
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.PRIMARY);
+
+        s = Pattern.compile("['\\[\\]‘’\u02BA\u02BB\u02BC\u02B9\u02BF]").matcher(s).replaceAll("");
+        s = Pattern.compile("[\\p{Punct}¿¡“”«»±⁺⁻℗®©°·]").matcher(s).replaceAll(" ");
+        s = Pattern.compile("\\s+").matcher(s).replaceAll(" ");
+        s = s.trim();
+
+        return collator.getCollationKey(s).toByteArray();
+    }
+
+
     private List<String> listOf(String ... args)
     {
         List<String> result = new ArrayList<String> ();
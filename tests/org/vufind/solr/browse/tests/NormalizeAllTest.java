@@ -0,0 +1,81 @@
+package org.vufind.solr.browse.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import org.vufind.util.Normalizer;
+import org.vufind.util.NormalizerFactory;
+
+public class NormalizeAllTest
+{
+    private static final String[] HEADINGS = {
+        "Smith, John, 1900-1980", "", "  padded  ", "Émile Zola", "[bracketed]",
+        "QA76.73 .J38 2005", "PS3545.H16 Z46 1989", "823.914 W", "005.133 J41",
+        "not a call number", "United States -- History -- Civil War, 1861-1865"
+    };
+
+
+    @Test
+    public void icuCollatorNormalizerMatchesNormalize() throws Exception
+    {
+        checkNormalizeAll("org.vufind.util.ICUCollatorNormalizer");
+    }
+
+
+    @Test
+    public void nacoNormalizerMatchesNormalize() throws Exception
+    {
+        checkNormalizeAll("org.vufind.util.NACONormalizer");
+    }
+
+
+    @Test
+    public void lcCallNormalizerMatchesNormalize() throws Exception
+    {
+        checkNormalizeAll("org.vufind.util.LCCallNormalizer");
+    }
+
+
+    @Test
+    public void deweyCallNormalizerMatchesNormalize() throws Exception
+    {
+        checkNormalizeAll("org.vufind.util.DeweyCallNormalizer");
+    }
+
+
+    @Test
+    public void normalizesLeadingPartOfBlock() throws Exception
+    {
+        Normalizer normalizer = NormalizerFactory.getNormalizer();
+        int[] offsets = new int[HEADINGS.length + 1];
+
+        byte[] arena = normalizer.normalizeAll(HEADINGS, 2, new byte[0], offsets);
+
+        assertArrayEquals(normalizer.normalize(HEADINGS[0]), Arrays.copyOfRange(arena, offsets[0], offsets[1]));
+        assertArrayEquals(normalizer.normalize(HEADINGS[1]), Arrays.copyOfRange(arena, offsets[1], offsets[2]));
+        assertEquals(0, offsets[3]);
+    }
+
+
+    // Start with a tiny arena so that it has to grow along the way
+    private void checkNormalizeAll(String normalizerClass) throws Exception
+    {
+        Normalizer normalizer = NormalizerFactory.getNormalizer(normalizerClass);
+        int[] offsets = new int[HEADINGS.length + 1];
+
+        byte[] arena = normalizer.normalizeAll(HEADINGS, HEADINGS.length, new byte[4], offsets);
+
+        for (int i = 0; i < HEADINGS.length; i++) {
+            byte[] expected = normalizer.normalize(HEADINGS[i]);
+            if (expected == null) {
+                expected = new byte[0];
+            }
+
+            assertArrayEquals(HEADINGS[i], expected, Arrays.copyOfRange(arena, offsets[i], offsets[i + 1]));
+        }
+    }
+}
@@ -2,6 +2,9 @@ package org.vufind.solr.browse.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -48,6 +51,52 @@ public class NormalizerFactoryTest
         }
     }
 
+    @Test
+    public void testNormalizersAreShared() throws Exception
+    {
+        String normalizerClass = "org.vufind.util.NACONormalizer";
+
+        assertSame(NormalizerFactory.getNormalizer(normalizerClass),
+                   NormalizerFactory.getNormalizer(normalizerClass));
+        assertSame(NormalizerFactory.getNormalizer(),
+                   NormalizerFactory.getNormalizer(NormalizerFactory.getDefaultNormalizerClassName()));
+    }
+
+    @Test
+    public void testSharedNormalizerIsThreadSafe() throws Exception
+    {
+        final Normalizer normalizer = NormalizerFactory.getNormalizer();
+        final String[] headings = {"Smith, John", "Émile Zola", "Über alles", "apple -- pie", "Ñandú"};
+        final byte[][] expected = new byte[headings.length][];
+
+        for (int i = 0; i < headings.length; i++) {
+            expected[i] = normalizer.normalize(headings[i]);
+        }
+
+        final AtomicBoolean ok = new AtomicBoolean(true);
+        Thread[] threads = new Thread[8];
+
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int n = 0; n < 2000; n++) {
+                        int i = n % headings.length;
+                        if (!Arrays.equals(expected[i], normalizer.normalize(headings[i]))) {
+                            ok.set(false);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(ok.get());
+    }
+
     @Test
     public void testClassCastException()
     {
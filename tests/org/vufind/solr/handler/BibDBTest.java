@@ -6,13 +6,17 @@ package org.vufind.solr.handler;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.DocSet;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.util.RefCounted;
 import org.junit.After;
@@ -120,6 +124,66 @@ public class BibDBTest
         searcherRef.decref();
     }
 
+    /**
+     * Test method for {@link org.vufind.solr.handler.BibDB#recordCounts(java.util.Collection)}.
+     * <p>
+     * Batch counts must agree with counting the headings one at a time.
+     */
+    @Test
+    public void testRecordCounts()
+    {
+        String title = "A common title";
+        String missing = "AAZZXX no such title";
+        RefCounted<SolrIndexSearcher> searcherRef = bibCore.getSearcher();
+        IndexSearcher searcher = searcherRef.get();
+        BibDB bibDbForTitle = new BibDB(searcher, "title_fullStr");
+        try {
+            Map<String, Integer> counts = bibDbForTitle.recordCounts(Arrays.asList(missing, title, title));
+            assertEquals(2, counts.size());
+            assertEquals(Integer.valueOf(bibDbForTitle.recordCount(title)), counts.get(title));
+            assertEquals(Integer.valueOf(0), counts.get(missing));
+        } catch (IOException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+            fail("recordCounts threw an exception");
+        } finally {
+            searcherRef.decref();
+        }
+    }
+
+    /**
+     * Test method for {@link org.vufind.solr.handler.BibDB#recordCounts(java.util.Collection)}
+     * with a filter.
+     * <p>
+     * Only records in the filter are counted.
+     */
+    @Test
+    public void testFilteredRecordCounts()
+    {
+        String title = "A common title";
+        String missing = "AAZZXX no such title";
+        RefCounted<SolrIndexSearcher> searcherRef = bibCore.getSearcher();
+        SolrIndexSearcher searcher = searcherRef.get();
+        try {
+            DocSet matching = searcher.getDocSet(new TermQuery(new Term("title_fullStr", title)));
+            DocSet none = searcher.getDocSet(new TermQuery(new Term("title_fullStr", missing)));
+
+            BibDB matchingDb = new BibDB(searcher, "title_fullStr", null, matching);
+            assertTrue(matchingDb.isFiltered());
+            assertEquals(Integer.valueOf(3), matchingDb.recordCounts(Arrays.asList(title)).get(title));
+            assertEquals(3, matchingDb.recordCount(title));
+
+            BibDB noneDb = new BibDB(searcher, "title_fullStr", null, none);
+            assertEquals(Integer.valueOf(0), noneDb.recordCounts(Arrays.asList(title)).get(title));
+            assertEquals(0, noneDb.recordCount(title));
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail("filtered recordCounts threw an exception");
+        } finally {
+            searcherRef.decref();
+        }
+    }
+
     /**
      * Test method for {@link org.vufind.solr.handler.BibDB#matchingIDs(java.lang.String, java.lang.String, int)}.
      */
@@ -21,6 +21,21 @@ public class BrowseHighlightingTest
     }
 
 
+    @Test
+    public void headOfLongHeading() throws Exception
+    {
+        String heading = "United States -- History -- Civil War, 1861-1865 -- " +
+                         "Campaigns -- Virginia -- Fredericksburg -- Personal narratives";
+
+        assertEquals("HEAD_OF_STRING",
+                     matchTypeFor(fakeBrowseResults(heading), "united states history civil war", 1, 20, 0));
+        assertEquals("HEAD_OF_STRING",
+                     matchTypeFor(fakeBrowseResults(heading), "United States -- History -- Civil War, 1861-1865 -- Camp", 1, 20, 0));
+        assertEquals("NONE",
+                     matchTypeFor(fakeBrowseResults(heading), "united states history civil war 1862", 1, 20, 0));
+    }
+
+
     @Test
     public void simpleExactMatch() throws Exception
     {
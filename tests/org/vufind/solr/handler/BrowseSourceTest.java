@@ -0,0 +1,124 @@
+package org.vufind.solr.handler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BrowseSourceTest
+{
+    private static final String NORMALIZER = HeadingsIndexFixture.NORMALIZER;
+
+    private File dir;
+    private String dbPath;
+    private BrowseSource source;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("browse-source").toFile();
+        dbPath = new File(dir, "subjects.db").getPath();
+
+        new HeadingsIndexFixture(dbPath).write("apple", "Banana");
+
+        source = new BrowseSource(dbPath, "topic", null, NORMALIZER, false, 0, 1,
+                                  "sqlite", null, null, false);
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+
+    @Test
+    public void retainedDBStaysReadableAcrossInstall() throws Exception
+    {
+        HeadingsDB old = source.getHeadingsDB();
+
+        flagUpdate("apple", "Banana", "Cherry");
+
+        HeadingsDB current = source.getHeadingsDB();
+        try {
+            assertNotSame(old, current);
+            assertEquals(3, current.totalCount);
+            assertTrue(new File(dbPath + ".1").exists());
+            assertFalse(new File(dbPath + "-updated").exists());
+            assertFalse(new File(dbPath + "-ready").exists());
+
+            // A request still holding the old generation can finish with it
+            assertEquals(2, old.totalCount);
+            assertEquals(Arrays.asList("apple", "Banana"), old.getHeadings(1, 5).headings);
+        } finally {
+            source.returnHeadingsDB(old);
+            source.returnHeadingsDB(current);
+        }
+    }
+
+
+    @Test
+    public void oldGenerationDeletedAfterLastRelease() throws Exception
+    {
+        HeadingsDB first = source.getHeadingsDB();
+        HeadingsDB second = source.getHeadingsDB();
+        assertSame(first, second);
+
+        flagUpdate("apple", "Banana", "Cherry");
+        source.returnHeadingsDB(source.getHeadingsDB());
+
+        source.returnHeadingsDB(first);
+        assertTrue(new File(dbPath).exists());
+
+        source.returnHeadingsDB(second);
+        assertFalse(new File(dbPath).exists());
+        assertTrue(new File(dbPath + ".1").exists());
+    }
+
+
+    @Test
+    public void corruptUpdateIsPutBack() throws Exception
+    {
+        HeadingsDB current = source.getHeadingsDB();
+        source.returnHeadingsDB(current);
+
+        try (FileOutputStream out = new FileOutputStream(dbPath + "-updated")) {
+            out.write("not a browse index".getBytes(StandardCharsets.UTF_8));
+        }
+        new File(dbPath + "-ready").createNewFile();
+
+        HeadingsDB db = source.getHeadingsDB();
+        try {
+            assertSame(current, db);
+            assertEquals(Arrays.asList("apple", "Banana"), db.getHeadings(1, 5).headings);
+
+            assertTrue(new File(dbPath + "-updated").exists());
+            assertFalse(new File(dbPath + "-ready").exists());
+            assertFalse(new File(dbPath + ".1").exists());
+            assertTrue(new File(dbPath).exists());
+        } finally {
+            source.returnHeadingsDB(db);
+        }
+    }
+
+
+    // Helpers
+
+    private void flagUpdate(String... headings) throws Exception
+    {
+        new HeadingsIndexFixture(dbPath + "-updated").write(headings);
+        new File(dbPath + "-ready").createNewFile();
+    }
+}
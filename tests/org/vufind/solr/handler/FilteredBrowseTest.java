@@ -0,0 +1,224 @@
+package org.vufind.solr.handler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.search.BitDocSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.vufind.util.NormalizerFactory;
+
+/**
+ * Browsing with a filter that only keeps every 37th heading, so pages have to
+ * be gathered from several blocks of headings.
+ */
+public class FilteredBrowseTest
+{
+    private static final String NORMALIZER = HeadingsIndexFixture.NORMALIZER;
+
+    private static final int HEADINGS = 500;
+    private static final int KEEP_EVERY = 37;
+
+    private File dbFile;
+    private Directory bibIndex;
+    private DirectoryReader reader;
+    private SQLiteHeadingsDB headingsDB;
+    private Browse browse;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dbFile = File.createTempFile("filtered-browse", ".db");
+
+        String[] headings = new String[HEADINGS];
+        for (int i = 0; i < HEADINGS; i++) {
+            headings[i] = heading(i);
+        }
+        new HeadingsIndexFixture(dbFile).write(headings);
+
+        headingsDB = new SQLiteHeadingsDB(dbFile.getPath(), NORMALIZER, 1);
+        headingsDB.openDB();
+
+        // One bib record per heading, in heading order, spread over several
+        // segments
+        bibIndex = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(bibIndex,
+                                             new IndexWriterConfig(new StandardAnalyzer())
+                                             .setMergePolicy(NoMergePolicy.INSTANCE));
+
+        for (int i = 0; i < HEADINGS; i++) {
+            Document doc = new Document();
+            doc.add(new StringField("topic", heading(i), Field.Store.NO));
+            writer.addDocument(doc);
+
+            if (i % 100 == 99) {
+                writer.commit();
+            }
+        }
+
+        writer.close();
+
+        reader = DirectoryReader.open(bibIndex);
+
+        FixedBitSet filter = new FixedBitSet(reader.maxDoc());
+        for (int i = 0; i < HEADINGS; i += KEEP_EVERY) {
+            filter.set(i);
+        }
+
+        BibDB bibDB = new BibDB(new IndexSearcher(reader), "topic", null, new BitDocSet(filter));
+        browse = new Browse(headingsDB, bibDB, null, false, 0);
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        headingsDB.release();
+        reader.close();
+        bibIndex.close();
+        dbFile.delete();
+    }
+
+
+    @Test
+    public void skipsHeadingsWithoutHits() throws Exception
+    {
+        BrowseList list = browse.getList(1, 0, 5, null);
+
+        assertEquals(kept(0, 5), headings(list));
+        assertEquals(0, list.offset);
+
+        for (BrowseItem item : list) {
+            assertEquals(Integer.valueOf(1), item.getCount());
+        }
+    }
+
+
+    @Test
+    public void positiveOffsetCountsHeadingsWithHits() throws Exception
+    {
+        BrowseList list = browse.getList(1, 3, 4, null);
+
+        assertEquals(kept(3, 4), headings(list));
+        assertEquals(3, list.offset);
+    }
+
+
+    @Test
+    public void negativeOffsetReadsBackwards() throws Exception
+    {
+        // Six kept headings come before heading 200
+        int rowid = browse.getId(heading(200));
+
+        BrowseList list = browse.getList(rowid, -2, 5, null);
+
+        assertEquals(kept(4, 5), headings(list));
+        assertEquals(-2, list.offset);
+    }
+
+
+    @Test
+    public void negativeOffsetStopsAtStartOfIndex() throws Exception
+    {
+        String from = heading(6 * KEEP_EVERY);
+        int rowid = browse.getId(from);
+
+        BrowseList list = browse.getList(rowid, -10, 12, null);
+
+        assertEquals(kept(0, 12), headings(list));
+        assertEquals(-6, list.offset);
+
+        // The matched heading is found at its real position on the page
+        Map<String, Object> response = new HashMap<> ();
+        new MatchTypeResponse(from, list, rowid, 12, list.offset,
+                              NormalizerFactory.getNormalizer(NORMALIZER)).addTo(response);
+        assertEquals("EXACT", response.get("matchType"));
+    }
+
+
+    @Test
+    public void pageBeforeStartingPoint() throws Exception
+    {
+        // Past the end, going back further than there are kept headings
+        BrowseList list = browse.getList(HEADINGS + 1, -20, 3, null);
+
+        assertEquals(kept(0, 3), headings(list));
+
+        Map<String, Object> response = new HashMap<> ();
+        new MatchTypeResponse(heading(HEADINGS - 1), list, HEADINGS + 1, 3, list.offset,
+                              NormalizerFactory.getNormalizer(NORMALIZER)).addTo(response);
+        assertEquals("NONE", response.get("matchType"));
+    }
+
+
+    @Test
+    public void stopsAtEndOfIndex() throws Exception
+    {
+        int last = (HEADINGS - 1) / KEEP_EVERY * KEEP_EVERY;
+
+        BrowseList list = browse.getList(browse.getId(heading(last - 10)), 0, 5, null);
+
+        assertEquals(kept(last / KEEP_EVERY, 1), headings(list));
+        // Every heading from the first on the page, with hits or not
+        assertEquals(HEADINGS - last, list.totalCount);
+
+        list = browse.getList(HEADINGS + 1, 0, 5, null);
+        assertTrue(list.isEmpty());
+        assertEquals(0, list.totalCount);
+    }
+
+
+    // Helpers
+
+    private static String heading(int i)
+    {
+        return String.format("h%03d", i);
+    }
+
+
+    /*
+     * `n` headings with hits, starting from the `first`th.
+     */
+    private static List<String> kept(int first, int n)
+    {
+        List<String> result = new ArrayList<> ();
+
+        for (int i = first * KEEP_EVERY; i < HEADINGS && result.size() < n; i += KEEP_EVERY) {
+            result.add(heading(i));
+        }
+
+        return result;
+    }
+
+
+    private static List<String> headings(BrowseList list)
+    {
+        List<String> result = new ArrayList<> ();
+
+        for (BrowseItem item : list) {
+            result.add(item.getHeading());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+package org.vufind.solr.handler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HeadingCountVectorTest
+{
+    private static final String NORMALIZER = HeadingsIndexFixture.NORMALIZER;
+
+    // In browse order, with the number of bib records for each
+    private static final String[] HEADINGS = {"apple", "Banana", "Cherry", "dates"};
+    private static final int[] COUNTS = {2, 0, 1, 3};
+
+    private File dbFile;
+    private Directory bibIndex;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dbFile = File.createTempFile("count-vector", ".db");
+        new HeadingsIndexFixture(dbFile).write(HEADINGS);
+
+        bibIndex = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(bibIndex, new IndexWriterConfig(new StandardAnalyzer()));
+
+        for (int i = 0; i < HEADINGS.length; i++) {
+            for (int n = 0; n < COUNTS[i]; n++) {
+                Document doc = new Document();
+                doc.add(new StringField("topic", HEADINGS[i], Field.Store.NO));
+                writer.addDocument(doc);
+            }
+        }
+
+        // A deleted record shouldn't count
+        Document deleted = new Document();
+        deleted.add(new StringField("id", "deleted", Field.Store.NO));
+        deleted.add(new StringField("topic", HEADINGS[1], Field.Store.NO));
+        writer.addDocument(deleted);
+        writer.commit();
+        writer.deleteDocuments(new Term("id", "deleted"));
+
+        writer.close();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        bibIndex.close();
+        dbFile.delete();
+    }
+
+
+    @Test
+    public void countsEveryHeadingByRowid() throws Exception
+    {
+        SQLiteHeadingsDB db = new SQLiteHeadingsDB(dbFile.getPath(), NORMALIZER, 1);
+        db.openDB();
+
+        DirectoryReader reader = DirectoryReader.open(bibIndex);
+
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            HeadingCountVector vector = HeadingCountVector.build(searcher, "topic", db);
+
+            assertEquals(HEADINGS.length, vector.size());
+            for (int i = 0; i < HEADINGS.length; i++) {
+                assertEquals(COUNTS[i], vector.count(i + 1));
+            }
+
+            assertEquals(-1, vector.count(0));
+            assertEquals(-1, vector.count(HEADINGS.length + 1));
+
+            assertTrue(vector.isFor(searcher, db));
+            assertFalse(vector.isFor(new IndexSearcher(reader), db));
+        } finally {
+            reader.close();
+            db.release();
+        }
+    }
+}
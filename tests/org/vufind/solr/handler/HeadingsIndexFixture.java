@@ -0,0 +1,169 @@
+package org.vufind.solr.handler;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.vufind.util.CrossReferences;
+import org.vufind.util.Normalizer;
+import org.vufind.util.NormalizerFactory;
+
+/**
+ * Writes a small SQLite headings index for tests, laid out as
+ * CreateBrowseSQLite would.  Keys come from the ICU collator normalizer
+ * unless another is given.  The headings must already be in key order.
+ */
+class HeadingsIndexFixture
+{
+    static final String NORMALIZER = "org.vufind.util.ICUCollatorNormalizer";
+
+    private final File file;
+    private String keysFrom = NORMALIZER;
+    private Integer[] counts = null;
+    private boolean withMetadata = false;
+    private String recordedNormalizer = null;
+    private final Map<Integer, CrossReferences> xrefs = new TreeMap<> ();
+
+
+    HeadingsIndexFixture(File file)
+    {
+        this.file = file;
+    }
+
+
+    HeadingsIndexFixture(String path)
+    {
+        this(new File(path));
+    }
+
+
+    /**
+     * Make the keys with {@code normalizerClass}.
+     */
+    HeadingsIndexFixture keysFrom(String normalizerClass)
+    {
+        keysFrom = normalizerClass;
+        return this;
+    }
+
+
+    /**
+     * Store a bib count for each heading, in order.  Null leaves a heading
+     * uncounted.
+     */
+    HeadingsIndexFixture withCounts(Integer... counts)
+    {
+        this.counts = counts;
+        return this;
+    }
+
+
+    /**
+     * Record the heading count and the normalizer that made the keys in
+     * browse_metadata.
+     */
+    HeadingsIndexFixture withMetadata()
+    {
+        return withMetadata(null);
+    }
+
+
+    /**
+     * As {@link #withMetadata()}, but recording {@code normalizerClass} as
+     * the normalizer.
+     */
+    HeadingsIndexFixture withMetadata(String normalizerClass)
+    {
+        withMetadata = true;
+        recordedNormalizer = normalizerClass;
+        return this;
+    }
+
+
+    HeadingsIndexFixture withXrefs(int rowid, CrossReferences xrefs)
+    {
+        this.xrefs.put(rowid, xrefs);
+        return this;
+    }
+
+
+    /**
+     * Write the index, replacing anything already in the file.
+     */
+    void write(String... headings) throws Exception
+    {
+        Normalizer normalizer = NormalizerFactory.getNormalizer(keysFrom);
+
+        file.delete();
+
+        Class.forName("org.sqlite.JDBC");
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+
+        try {
+            Statement stat = conn.createStatement();
+            stat.executeUpdate("create table headings (key, key_text, heading" +
+                               ((counts != null) ? ", count" : "") + ");");
+
+            PreparedStatement prep = conn.prepareStatement("insert into headings (key, key_text, heading) values (?, ?, ?)");
+            for (String heading : headings) {
+                prep.setBytes(1, normalizer.normalize(heading));
+                prep.setBytes(2, heading.getBytes(StandardCharsets.UTF_8));
+                prep.setBytes(3, heading.getBytes(StandardCharsets.UTF_8));
+                prep.addBatch();
+            }
+            prep.executeBatch();
+            prep.close();
+
+            if (counts != null) {
+                prep = conn.prepareStatement("update headings set count = ? where rowid = ?");
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] != null) {
+                        prep.setInt(1, counts[i]);
+                        prep.setInt(2, i + 1);
+                        prep.executeUpdate();
+                    }
+                }
+                prep.close();
+            }
+
+            stat.executeUpdate("create index keyindex on headings (key);");
+
+            if (!xrefs.isEmpty()) {
+                stat.executeUpdate("create table heading_xrefs (rowid integer primary key, xrefs blob);");
+
+                prep = conn.prepareStatement("insert into heading_xrefs (rowid, xrefs) values (?, ?)");
+                for (Map.Entry<Integer, CrossReferences> entry : xrefs.entrySet()) {
+                    prep.setInt(1, entry.getKey());
+                    prep.setBytes(2, entry.getValue().encode());
+                    prep.executeUpdate();
+                }
+                prep.close();
+            }
+
+            if (withMetadata) {
+                String recorded = (recordedNormalizer != null) ?
+                                  recordedNormalizer : normalizer.getClass().getName();
+
+                stat.executeUpdate("create table browse_metadata (name text primary key, value);");
+
+                prep = conn.prepareStatement("insert into browse_metadata values (?, ?)");
+                prep.setString(1, "row_count");
+                prep.setInt(2, headings.length);
+                prep.executeUpdate();
+                prep.setString(1, "normalizer");
+                prep.setString(2, recorded);
+                prep.executeUpdate();
+                prep.close();
+            }
+
+            stat.close();
+        } finally {
+            conn.close();
+        }
+    }
+}
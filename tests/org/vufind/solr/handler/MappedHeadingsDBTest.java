@@ -0,0 +1,139 @@
+package org.vufind.solr.handler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.vufind.util.MappedHeadingsWriter;
+import org.vufind.util.Normalizer;
+import org.vufind.util.NormalizerFactory;
+import org.vufind.util.SortKeys;
+
+public class MappedHeadingsDBTest
+{
+    private static final String NORMALIZER = "org.vufind.util.ICUCollatorNormalizer";
+
+    private File indexFile;
+    private MappedHeadingsDB db;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        indexFile = File.createTempFile("mapped-headings", ".db");
+        writeIndex(indexFile, "Cherry", "apple", "Banana", "dates", "Apple pie");
+
+        db = new MappedHeadingsDB(indexFile.getPath(), NORMALIZER);
+        db.openDB();
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.release();
+        indexFile.delete();
+    }
+
+
+    @Test
+    public void countsHeadings()
+    {
+        assertEquals(5, db.totalCount);
+    }
+
+
+    @Test
+    public void findsExactAndFollowingHeadings() throws Exception
+    {
+        assertEquals(1, db.getHeadingStart("apple"));
+        assertEquals(3, db.getHeadingStart("b"));
+        assertEquals(4, db.getHeadingStart("cherry"));
+        assertEquals(1, db.getHeadingStart("aardvark"));
+    }
+
+
+    @Test
+    public void startPastTheEnd() throws Exception
+    {
+        assertEquals(6, db.getHeadingStart("zebra"));
+    }
+
+
+    @Test
+    public void returnsSliceInRowidOrder() throws Exception
+    {
+        HeadingSlice slice = db.getHeadings(2, 3);
+
+        assertEquals(Arrays.asList("Apple pie", "Banana", "Cherry"), slice.headings);
+        assertEquals(slice.headings, slice.sort_keys);
+        assertEquals(4, slice.total);
+    }
+
+
+    @Test
+    public void sliceStopsAtEnd() throws Exception
+    {
+        HeadingSlice slice = db.getHeadings(4, 20);
+
+        assertEquals(Arrays.asList("Cherry", "dates"), slice.headings);
+        assertEquals(2, slice.total);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writerRejectsUnsortedHeadings() throws Exception
+    {
+        File f = File.createTempFile("mapped-headings", ".db");
+
+        try {
+            MappedHeadingsWriter writer = new MappedHeadingsWriter(f);
+            try {
+                writer.add(new byte[] {2}, bytes("b"), bytes("b"));
+                writer.add(new byte[] {1}, bytes("a"), bytes("a"));
+            } finally {
+                writer.close();
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+
+    // Helpers
+
+    private void writeIndex(File f, String ... headings) throws Exception
+    {
+        final Normalizer normalizer = NormalizerFactory.getNormalizer(NORMALIZER);
+
+        List<String> sorted = new ArrayList<String>(Arrays.asList(headings));
+        Collections.sort(sorted, new Comparator<String> () {
+            public int compare(String a, String b) {
+                return SortKeys.compare(normalizer.normalize(a), normalizer.normalize(b));
+            }
+        });
+
+        MappedHeadingsWriter writer = new MappedHeadingsWriter(f);
+        try {
+            for (String heading : sorted) {
+                writer.add(normalizer.normalize(heading), bytes(heading), bytes(heading));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+
+    private byte[] bytes(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
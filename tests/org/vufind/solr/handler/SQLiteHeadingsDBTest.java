@@ -0,0 +1,147 @@
+package org.vufind.solr.handler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.vufind.util.CrossReferences;
+
+public class SQLiteHeadingsDBTest
+{
+    private static final String NORMALIZER = HeadingsIndexFixture.NORMALIZER;
+    private static final String NACO = "org.vufind.util.NACONormalizer";
+
+    private static final String[] HEADINGS = {"apple", "Banana", "Cherry", "dates"};
+
+    private File dbFile;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dbFile = File.createTempFile("sqlite-headings", ".db");
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        dbFile.delete();
+    }
+
+
+    @Test
+    public void readsCountFromMetadata() throws Exception
+    {
+        new HeadingsIndexFixture(dbFile).withMetadata().write(HEADINGS);
+
+        SQLiteHeadingsDB db = open();
+        try {
+            assertEquals(HEADINGS.length, db.totalCount);
+            assertEquals(2, db.getHeadingStart("banana"));
+            assertTrue(db.getHeadings(1, 2).counts.isEmpty());
+        } finally {
+            db.release();
+        }
+    }
+
+
+    @Test
+    public void countsHeadingsWithoutMetadata() throws Exception
+    {
+        new HeadingsIndexFixture(dbFile).write(HEADINGS);
+
+        SQLiteHeadingsDB db = open();
+        try {
+            assertEquals(HEADINGS.length, db.totalCount);
+        } finally {
+            db.release();
+        }
+    }
+
+
+    @Test
+    public void returnsStoredCounts() throws Exception
+    {
+        // Each heading's count is its rowid times 11, except for the third
+        new HeadingsIndexFixture(dbFile).withMetadata().withCounts(11, 22, null, 44).write(HEADINGS);
+
+        SQLiteHeadingsDB db = open();
+        try {
+            assertEquals(Arrays.asList(22, null), db.getHeadings(2, 2).counts);
+        } finally {
+            db.release();
+        }
+    }
+
+
+    @Test
+    public void returnsStoredCrossReferences() throws Exception
+    {
+        // The third heading has a see-also reference to the first
+        CrossReferences xrefs = new CrossReferences(Arrays.asList(HEADINGS[0]),
+                                                    new ArrayList<String>(),
+                                                    new ArrayList<String>());
+        new HeadingsIndexFixture(dbFile).withMetadata().withXrefs(3, xrefs).write(HEADINGS);
+
+        SQLiteHeadingsDB db = open();
+        try {
+            HeadingSlice slice = db.getHeadings(2, 3);
+
+            assertEquals(3, slice.xrefs.size());
+            assertNull(slice.xrefs.get(0));
+            assertEquals(Arrays.asList("apple"), slice.xrefs.get(1).seeAlso);
+            assertNull(slice.xrefs.get(2));
+
+            assertTrue(db.getHeadings(1, 2).counts.isEmpty());
+        } finally {
+            db.release();
+        }
+    }
+
+
+    @Test(expected = Exception.class)
+    public void rejectsIndexBuiltWithOtherNormalizer() throws Exception
+    {
+        new HeadingsIndexFixture(dbFile).keysFrom(NACO).withMetadata().write(HEADINGS);
+
+        open().release();
+    }
+
+
+    @Test
+    public void opensIndexWhoseKeysHaveDrifted() throws Exception
+    {
+        // Keys from another normalizer, but no record of it
+        new HeadingsIndexFixture(dbFile).keysFrom(NACO).write(HEADINGS);
+
+        SQLiteHeadingsDB db = open();
+        try {
+            assertEquals(HEADINGS.length, db.totalCount);
+        } finally {
+            db.release();
+        }
+
+        // Recorded as built with our normalizer, which now gives other keys
+        new HeadingsIndexFixture(dbFile).keysFrom(NACO).withMetadata(NORMALIZER).write(HEADINGS);
+
+        open().release();
+    }
+
+
+    // Helpers
+
+    private SQLiteHeadingsDB open() throws Exception
+    {
+        SQLiteHeadingsDB db = new SQLiteHeadingsDB(dbFile.getPath(), NORMALIZER, 1);
+        db.openDB();
+
+        return db;
+    }
+}